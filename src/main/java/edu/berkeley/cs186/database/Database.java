@@ -15,6 +15,8 @@ import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.TempSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
@@ -24,6 +26,7 @@ import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.recovery.ARIESRecoveryManager;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -33,9 +36,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Phaser;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -82,6 +87,10 @@ public class Database implements AutoCloseable {
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
+    // File (in the database directory) listing the pages in the buffer cache when the
+    // database was last closed
+    private static final String BUFFER_POOL_DUMP_FILE = "buffer-pool.dump";
+
     // _metadata.tables, manages all tables in the database
     private Table tableMetadata;
     // _metadata.indices, manages all indices in the database
@@ -93,8 +102,13 @@ public class Database implements AutoCloseable {
     private final LockManager lockManager;
     // disk space manager
     private final DiskSpaceManager diskSpaceManager;
+    // temporary partitions (the disk space manager above, which passes everything else
+    // through to the disk space manager for the database directory)
+    private final TempSpaceManager tempSpaceManager;
     // buffer manager
     private final BufferManager bufferManager;
+    // directory the database (and the buffer pool dump) is in
+    private final String fileDir;
     // recovery manager
     private final RecoveryManager recoveryManager;
 
@@ -173,21 +187,46 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, new Options()
+                .numMemoryPages(numMemoryPages)
+                .lockManager(lockManager)
+                .evictionPolicy(policy)
+                .useRecoveryManager(useRecoveryManager));
+    }
+
+    /**
+     * Creates a new database configured by `options`; settings not set in `options`
+     * keep the same defaults as Database(fileDir).
+     *
+     * @param fileDir the directory to put the table files in
+     * @param options the remaining settings of the database
+     */
+    public Database(String fileDir, Options options) {
+        int numMemoryPages = options.numMemoryPages;
+        LockManager lockManager = options.lockManager != null ? options.lockManager : new DummyLockManager();
+        EvictionPolicy policy = options.policy != null ? options.policy : new ClockEvictionPolicy();
+        BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory =
+            options.diskSpaceManagerFactory(fileDir);
+
         boolean initialized = setupDirectory(fileDir);
 
+        this.fileDir = fileDir;
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
 
-        if (useRecoveryManager) {
+        if (options.useRecoveryManager && options.logManagerFactory != null) {
+            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction, options.logManagerFactory);
+        } else if (options.useRecoveryManager) {
             recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        tempSpaceManager = new TempSpaceManager(diskSpaceManagerFactory.apply(fileDir, recoveryManager));
+        diskSpaceManager = tempSpaceManager;
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
-                                              policy);
+                                          policy, options.numBufferInstances, options.offHeapFrames);
 
         // create log partition
         if (!initialized) diskSpaceManager.allocPart(0);
@@ -211,6 +250,10 @@ public class Database implements AutoCloseable {
             this.loadMetadataTables();
         }
         initTransaction.commit();
+
+        if (options.warmUpBufferPool) {
+            this.warmUpBufferPool();
+        }
     }
 
     private boolean setupDirectory(String fileDir) {
@@ -290,6 +333,7 @@ public class Database implements AutoCloseable {
 
         dropDemoTables();
 
+        this.saveBufferPool();
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
@@ -301,6 +345,50 @@ public class Database implements AutoCloseable {
         this.diskSpaceManager.close();
     }
 
+    /**
+     * Saves the list of pages in the buffer cache (hottest first, without log pages), for
+     * warmUpBufferPool to load after a restart. The list is only a hint, so failing to save it is not an error.
+     */
+    private void saveBufferPool() {
+        File dumpFile = new File(fileDir, BUFFER_POOL_DUMP_FILE);
+        File tmpFile = new File(fileDir, BUFFER_POOL_DUMP_FILE + ".tmp");
+        List<String> lines = new ArrayList<>();
+        for (long pageNum : bufferManager.getResidentPages()) {
+            lines.add(Long.toString(pageNum));
+        }
+        try {
+            Files.write(tmpFile.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tmpFile.toPath(), dumpFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Starts loading the pages that were in the buffer cache when the database was last
+     * closed back into the buffer cache, in the background (see Options.warmUpBufferPool).
+     * Like saving the list, failing to read it is not an error: the buffer cache is just
+     * not warmed up.
+     */
+    private void warmUpBufferPool() {
+        File dumpFile = new File(fileDir, BUFFER_POOL_DUMP_FILE);
+        if (!dumpFile.exists()) {
+            return;
+        }
+        List<Long> pageNums = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(dumpFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    pageNums.add(Long.parseLong(line.trim()));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return;
+        }
+        bufferManager.startWarmUp(pageNums);
+    }
+
     public LockManager getLockManager() {
         return lockManager;
     }
@@ -323,6 +411,27 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * @return number of pages of memory in the buffer cache
+     */
+    public int getBufferSize() {
+        return this.bufferManager.getBufferSize();
+    }
+
+    /**
+     * Resizes the buffer cache while the database is running (see BufferManager#resize),
+     * e.g. to give memory to (or take memory from) operators' work memory. Work memory is
+     * capped at the new buffer size.
+     *
+     * @param numMemoryPages the new number of pages of memory in the buffer cache
+     * @return the number of pages of memory in the buffer cache after resizing, which may
+     *         be more than requested if pages in the frames to release were in use
+     */
+    public synchronized int setBufferSize(int numMemoryPages) {
+        this.numMemoryPages = this.bufferManager.resize(numMemoryPages);
+        return this.numMemoryPages;
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -631,10 +740,14 @@ public class Database implements AutoCloseable {
             String tempTableName = "tempTable" + tempTableCounter++;
             String tableName = prefixTempTableName(tempTableName);
 
-            int partNum = diskSpaceManager.allocPart();
+            // Temp tables are never logged, and are kept in memory as long as they fit
+            int partNum = tempSpaceManager.allocTempPart();
             long pageNum = diskSpaceManager.allocPage(partNum);
             // We can use dummy contexts since this table will only be visible from the current transaction
             PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum, pageNum, (short) 0, new DummyLockContext("_dummyPageDir"));
+            // Temp tables (materialized results, sort runs, hash partitions) are written and
+            // read in bulk, so they recycle a small ring of frames instead of the whole buffer
+            pageDirectory.setAccessStrategy(new BufferAccessStrategy());
             tempTables.put(tempTableName, new Table(tableName, schema, pageDirectory, new DummyLockContext("_dummyTempTable" + tempTableName), stats));
             return tempTableName;
         }
@@ -1035,6 +1148,11 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createTable(Schema s, String tableName) {
+            createTable(s, tableName, DiskSpaceManager.ANY_TABLESPACE);
+        }
+
+        @Override
+        public void createTable(Schema s, String tableName, int tablespace) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1048,7 +1166,7 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("table `" + tableName + "` already exists");
             }
             TableMetadata metadata = new TableMetadata(tableName);
-            metadata.partNum = diskSpaceManager.allocPart();
+            metadata.partNum = diskSpaceManager.allocPartInTablespace(tablespace);
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
             synchronized (tableMetadata) {
@@ -1094,6 +1212,11 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            createIndex(tableName, columnName, bulkLoad, DiskSpaceManager.ANY_TABLESPACE);
+        }
+
+        @Override
+        public void createIndex(String tableName, String columnName, boolean bulkLoad, int tablespace) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1122,7 +1245,7 @@ public class Database implements AutoCloseable {
 
             int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
             Record indexEntry = new Record(tableName, columnName, order,
-                    diskSpaceManager.allocPart(),
+                    diskSpaceManager.allocPartInTablespace(tablespace),
                     diskSpaceManager.INVALID_PAGE_NUM,
                     colType.getTypeId().ordinal(),
                     colType.getSizeInBytes(), -1
@@ -1310,4 +1433,173 @@ public class Database implements AutoCloseable {
             tb.buildStatistics(10);
             return false;
     }
+
+    /**
+     * Settings for Database(fileDir, options). Every setting has a default, so only the
+     * ones that differ need to be set, e.g.
+     *
+     *     new Database(dir, new Database.Options().numMemoryPages(1024).numBufferInstances(8))
+     */
+    public static class Options {
+        private int numMemoryPages = DEFAULT_BUFFER_SIZE;
+        // null for a new DummyLockManager/ClockEvictionPolicy per database
+        private LockManager lockManager;
+        private EvictionPolicy policy;
+        private boolean useRecoveryManager = false;
+        // null for the default disk space manager
+        private BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory;
+        private List<String> extraDataDirs = Collections.emptyList();
+        private String logDir;
+        private boolean deferSync = false;
+        private int numBufferInstances = 1;
+        private boolean offHeapFrames = false;
+        private Function<BufferManager, LogManager> logManagerFactory;
+        private boolean warmUpBufferPool = false;
+
+        /**
+         * @param numMemoryPages the number of pages of memory in the buffer cache (default 262144)
+         */
+        public Options numMemoryPages(int numMemoryPages) {
+            this.numMemoryPages = numMemoryPages;
+            return this;
+        }
+
+        /**
+         * @param lockManager the lock manager (default: locking disabled, DummyLockManager)
+         */
+        public Options lockManager(LockManager lockManager) {
+            this.lockManager = lockManager;
+            return this;
+        }
+
+        /**
+         * @param policy eviction policy for buffer cache (default: clock)
+         */
+        public Options evictionPolicy(EvictionPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+         *                           (default: disabled)
+         */
+        public Options useRecoveryManager(boolean useRecoveryManager) {
+            this.useRecoveryManager = useRecoveryManager;
+            return this;
+        }
+
+        /**
+         * Uses a custom disk space manager, e.g. MappedDiskSpaceManager::new to access
+         * partition files through memory maps. Cannot be combined with extra data
+         * directories, a separate log directory or deferSync.
+         *
+         * @param diskSpaceManagerFactory creates the disk space manager, given the
+         *                                directory and the recovery manager
+         */
+        public Options diskSpaceManager(BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory) {
+            this.diskSpaceManagerFactory = diskSpaceManagerFactory;
+            return this;
+        }
+
+        /**
+         * Spreads partitions over more data directories (tablespaces), e.g. on separate
+         * disks. The database directory is tablespace 0 and holds the metadata tables;
+         * new tables and indices are placed round-robin across all data directories unless
+         * created in a specific tablespace.
+         *
+         * @param extraDataDirs the directories of tablespaces 1, 2, ...
+         */
+        public Options dataDirs(List<String> extraDataDirs) {
+            this.extraDataDirs = new ArrayList<>(extraDataDirs);
+            return this;
+        }
+
+        /**
+         * @param logDir the directory to put the log partition in (default: the database
+         *               directory)
+         */
+        public Options logDir(String logDir) {
+            this.logDir = logDir;
+            return this;
+        }
+
+        /**
+         * Defers forcing data page writes to disk until the recovery manager checkpoints
+         * (or the partition is closed), so that many writes share a single force. The log,
+         * and page and partition allocations, are still forced immediately.
+         *
+         * @param deferSync whether to defer forcing data page writes (default: force every write)
+         */
+        public Options deferSync(boolean deferSync) {
+            this.deferSync = deferSync;
+            return this;
+        }
+
+        /**
+         * Splits the buffer cache into several independent buffer pool instances, so that
+         * concurrent transactions working on different pages do not contend for the same
+         * buffer manager lock.
+         *
+         * @param numBufferInstances number of buffer pool instances (default 1)
+         */
+        public Options numBufferInstances(int numBufferInstances) {
+            this.numBufferInstances = numBufferInstances;
+            return this;
+        }
+
+        /**
+         * Allocates buffer cache frames off-heap, in large direct buffers, so that a large
+         * buffer cache does not slow down garbage collection and pages are read and written
+         * without intermediate copies.
+         *
+         * @param offHeapFrames whether to allocate frames off-heap (default: on-heap)
+         */
+        public Options offHeapFrames(boolean offHeapFrames) {
+            this.offHeapFrames = offHeapFrames;
+            return this;
+        }
+
+        /**
+         * Uses a custom log manager, e.g. a SegmentedLogManager that writes the log to its
+         * own files rather than through the buffer cache. Only used with the recovery
+         * manager enabled.
+         *
+         * @param logManagerFactory creates the log manager, given the buffer manager
+         */
+        public Options logManager(Function<BufferManager, LogManager> logManagerFactory) {
+            this.logManagerFactory = logManagerFactory;
+            return this;
+        }
+
+        /**
+         * Loads the pages that were in the buffer cache when the database was last closed
+         * (except log pages) back into the buffer cache once the database is open, so that
+         * the first requests after a restart do not have to read them one at a time. Pages
+         * are loaded in the background, in order of page number, and only into free frames;
+         * call getBufferManager().awaitWarmUp() to wait for them.
+         *
+         * @param warmUpBufferPool whether to warm up the buffer cache (default: no)
+         */
+        public Options warmUpBufferPool(boolean warmUpBufferPool) {
+            this.warmUpBufferPool = warmUpBufferPool;
+            return this;
+        }
+
+        private BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory(String fileDir) {
+            if (extraDataDirs.isEmpty() && logDir == null && !deferSync) {
+                return diskSpaceManagerFactory != null ? diskSpaceManagerFactory : DiskSpaceManagerImpl::new;
+            }
+            if (diskSpaceManagerFactory != null) {
+                throw new IllegalArgumentException(
+                    "data and log directories and deferSync cannot be combined with a custom disk space manager");
+            }
+            List<String> dataDirs = new ArrayList<>();
+            dataDirs.add(fileDir);
+            dataDirs.addAll(extraDataDirs);
+            String dir = logDir != null ? logDir : fileDir;
+            boolean defer = deferSync;
+            return (d, recoveryManager) -> new DiskSpaceManagerImpl(dataDirs, dir, recoveryManager, defer);
+        }
+    }
 }
@@ -124,6 +124,15 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void createTable(Schema s, String tableName);
 
+    /**
+     * Creates a table, stored in a specific tablespace (data directory) of the database.
+     *
+     * @param s schema of new table
+     * @param tableName name of new table
+     * @param tablespace index of the tablespace, or DiskSpaceManager.ANY_TABLESPACE
+     */
+    public abstract void createTable(Schema s, String tableName, int tablespace);
+
     /**
      * Drops a table. Equivalent to
      *      DROP TABLE tableName
@@ -152,6 +161,16 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void createIndex(String tableName, String columnName, boolean bulkLoad);
 
+    /**
+     * Creates an index, stored in a specific tablespace (data directory) of the database.
+     *
+     * @param tableName name of table to create index for
+     * @param columnName name of column to create index on
+     * @param bulkLoad whether to bulk load data
+     * @param tablespace index of the tablespace, or DiskSpaceManager.ANY_TABLESPACE
+     */
+    public abstract void createIndex(String tableName, String columnName, boolean bulkLoad, int tablespace);
+
     /**
      * Drops an index. Equivalent to
      *      DROP INDEX tableName_columnName
@@ -195,6 +195,24 @@ public class CommandLineInterface {
             } else {
                 this.out.println(db.getLockManager().getLocks(tc));
             }
+        } else if (cmd.equals("buffer")) {
+            if (tokens.length == 2) {
+                int requested;
+                try {
+                    requested = Integer.parseInt(tokens[1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format(
+                        "`%s` is not a valid number of pages",
+                        tokens[1]
+                    ));
+                }
+                int bufferSize = db.setBufferSize(requested);
+                if (bufferSize != requested) {
+                    this.out.printf("Could not release pinned pages: buffer resized to %d pages\n", bufferSize);
+                    return;
+                }
+            }
+            this.out.printf("Buffer size: %d pages\n", db.getBufferSize());
         } else {
             throw new IllegalArgumentException(String.format(
                 "`%s` is not a valid metacommand",
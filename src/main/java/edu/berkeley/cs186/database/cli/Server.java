@@ -36,10 +36,20 @@ public class Server {
     public static void main(String[] args) {
         // Note: you'll probably want to complete Project 4 before
         // attempting to run this.
-        Database db = new Database("demo", 25, new LockManager());
+        // The buffer pool is warmed up with the pages that were cached when the server last
+        // shut down.
+        Database db = new Database("demo", new Database.Options()
+                .numMemoryPages(25)
+                .lockManager(new LockManager())
+                .warmUpBufferPool(true));
         
         // Use the following after completing project 5 (recovery)
-        // Database db = new Database("demo", 25, new LockManager(), new ClockEvictionPolicy(), true);
+        // Database db = new Database("demo", new Database.Options()
+        //         .numMemoryPages(25)
+        //         .lockManager(new LockManager())
+        //         .evictionPolicy(new ClockEvictionPolicy())
+        //         .useRecoveryManager(true)
+        //         .warmUpBufferPool(true));
 
         Server server = new Server();
         server.listen(db);
@@ -4,7 +4,9 @@ import java.nio.ByteBuffer;
 
 /**
  * Partial implementation of a Buffer, which funnels all operations
- * into the generic get and put operation.
+ * into the generic get and put operation. Subclasses that can read values
+ * more cheaply than by copying their bytes out may override the absolute
+ * get operations, which all relative get operations go through.
  */
 public abstract class AbstractBuffer implements Buffer {
     private int pos;
@@ -21,7 +23,7 @@ public abstract class AbstractBuffer implements Buffer {
     public abstract Buffer get(byte[] dst, int offset, int length);
 
     @Override
-    public final byte get(int index) {
+    public byte get(int index) {
         get(bytes, index, 1);
         return bytes[0];
     }
@@ -57,7 +59,7 @@ public abstract class AbstractBuffer implements Buffer {
     }
 
     @Override
-    public final double getDouble(int index) {
+    public double getDouble(int index) {
         get(bytes, index, 8);
         return buf.getDouble(0);
     }
@@ -69,7 +71,7 @@ public abstract class AbstractBuffer implements Buffer {
     }
 
     @Override
-    public final float getFloat(int index) {
+    public float getFloat(int index) {
         get(bytes, index, 4);
         return buf.getFloat(0);
     }
@@ -81,7 +83,7 @@ public abstract class AbstractBuffer implements Buffer {
     }
 
     @Override
-    public final int getInt(int index) {
+    public int getInt(int index) {
         get(bytes, index, 4);
         return buf.getInt(0);
     }
@@ -93,7 +95,7 @@ public abstract class AbstractBuffer implements Buffer {
     }
 
     @Override
-    public final long getLong(int index) {
+    public long getLong(int index) {
         get(bytes, index, 8);
         return buf.getLong(0);
     }
@@ -105,7 +107,7 @@ public abstract class AbstractBuffer implements Buffer {
     }
 
     @Override
-    public final short getShort(int index) {
+    public short getShort(int index) {
         get(bytes, index, 2);
         return buf.getShort(0);
     }
@@ -16,7 +16,7 @@ public class Bits {
      *   - getBit(0b01000000, 1) == ONE
      *   - getBit(0b00100000, 1) == ZERO
      */
-    static Bit getBit(byte b, int i) {
+    public static Bit getBit(byte b, int i) {
         if (i < 0 || i >= 8) {
             throw new IllegalArgumentException(String.format("index %d out of bounds", i));
         }
@@ -0,0 +1,322 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Partition handle that stores data pages compressed (with Deflater), for partitions
+ * that are large and rarely updated.
+ *
+ * The partition's OS file holds the master and header pages as usual, but data pages are
+ * stored in a second OS file (the page file, named after the partition file plus SUFFIX)
+ * as variable-size records, each of the form
+ *
+ *    [data page number (int)][stored length (int)][codec (byte)][stored bytes]
+ *
+ * Records are only ever appended: writing a page appends a new record, and an in-memory
+ * map from data page number to the page's latest record (the indirection map) is updated.
+ * The map is rebuilt by scanning the page file when the partition is opened; a torn
+ * record at the end of the page file (from a crash during a write) is discarded. Once
+ * more than half of the page file is taken up by superseded records, the live records are
+ * copied to a new page file, which atomically replaces the old one.
+ *
+ * The existence of the page file is what marks a partition as compressed. Data pages
+ * that were never written read as zeroes.
+ */
+class CompressedPartitionHandle extends PartitionHandle {
+    // Suffix of the name of the page file.
+    static final String SUFFIX = ".z";
+
+    // Size of a record header.
+    private static final int RECORD_HEADER_SIZE = 9;
+
+    // Codecs.
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+
+    // Page files smaller than this are never compacted.
+    private static final long MIN_COMPACT_SIZE = 1L << 20;
+
+    // Location of the latest record of a data page in the page file.
+    private static class Slot {
+        private final long offset;
+        private final int length;
+
+        private Slot(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // The following are all guarded by this object's monitor (readers and writers of
+    // data pages only hold the partition lock in shared mode):
+    // Page file
+    private RandomAccessFile pageFile;
+    private FileChannel pageChannel;
+    // Indirection map: data page number -> latest record of the page
+    private Map<Integer, Slot> slots;
+    // Offset of the end of the page file
+    private long pageFileEnd;
+    // Total size of the latest records of all pages
+    private long liveBytes;
+
+    CompressedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean deferSync) {
+        super(partNum, recoveryManager, deferSync);
+        this.slots = new HashMap<>();
+    }
+
+    /**
+     * @param fileName name of a partition's OS file
+     * @return name of the page file of the partition, if it is compressed
+     */
+    static String pageFileName(String fileName) {
+        return fileName + SUFFIX;
+    }
+
+    @Override
+    synchronized void fileOpening() throws IOException {
+        this.pageFile = new RandomAccessFile(pageFileName(this.getFileName()), "rw");
+        this.pageChannel = this.pageFile.getChannel();
+        this.loadSlots();
+    }
+
+    @Override
+    void closeFile() throws IOException {
+        super.closeFile();
+        synchronized (this) {
+            if (this.pageChannel != null) {
+                this.pageFile.close();
+                this.pageChannel.close();
+                this.pageFile = null;
+                this.pageChannel = null;
+            }
+        }
+    }
+
+    @Override
+    void freePage(int pageNum) throws IOException {
+        super.freePage(pageNum);
+        synchronized (this) {
+            // the page's record is garbage from now on
+            Slot old = this.slots.remove(pageNum);
+            if (old != null) {
+                this.liveBytes -= old.length;
+            }
+        }
+    }
+
+    @Override
+    void preallocate(int startPageNum, int endPageNum) {
+        // pages are only stored once written
+    }
+
+    @Override
+    void read(long offset, ByteBuffer buf) throws IOException {
+        byte[] page = new byte[PAGE_SIZE];
+        this.read(offset, page);
+        buf.put(page);
+    }
+
+    @Override
+    void write(long offset, ByteBuffer buf) throws IOException {
+        byte[] page = new byte[PAGE_SIZE];
+        buf.get(page);
+        this.write(offset, page);
+    }
+
+    /**
+     * Reads a data page from its latest record in the page file.
+     * @param offset offset of the data page in the (uncompressed) partition
+     * @param buf output buffer - assumed to be page size
+     */
+    private synchronized void read(long offset, byte[] buf) throws IOException {
+        Slot slot = this.slots.get(PartitionHandle.dataPageNum(offset));
+        if (slot == null) {
+            Arrays.fill(buf, (byte) 0);
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(slot.length);
+        this.readFully(record, slot.offset);
+        record.flip();
+        record.position(8);
+        byte codec = record.get();
+        if (codec == STORED) {
+            record.get(buf, 0, PAGE_SIZE);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(record.array(), RECORD_HEADER_SIZE, slot.length - RECORD_HEADER_SIZE);
+            int n = 0;
+            while (n < PAGE_SIZE && !inflater.finished()) {
+                n += inflater.inflate(buf, n, PAGE_SIZE - n);
+            }
+            if (n != PAGE_SIZE) {
+                throw new PageException("corrupt compressed page at offset " + slot.offset);
+            }
+        } catch (DataFormatException e) {
+            throw new PageException("corrupt compressed page at offset " + slot.offset + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Appends a record with a data page to the page file.
+     * @param offset offset of the data page in the (uncompressed) partition
+     * @param buf input buffer - assumed to be page size
+     */
+    private synchronized void write(long offset, byte[] buf) throws IOException {
+        int pageNum = PartitionHandle.dataPageNum(offset);
+        byte[] compressed = new byte[PAGE_SIZE];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        int compressedLength;
+        try {
+            deflater.setInput(buf, 0, PAGE_SIZE);
+            deflater.finish();
+            compressedLength = deflater.deflate(compressed);
+            if (!deflater.finished()) {
+                // doesn't fit in a page: store as is
+                compressedLength = -1;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        boolean stored = compressedLength < 0 || compressedLength >= PAGE_SIZE;
+        int length = RECORD_HEADER_SIZE + (stored ? PAGE_SIZE : compressedLength);
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(pageNum);
+        record.putInt(length);
+        record.put(stored ? STORED : DEFLATED);
+        record.put(stored ? buf : compressed, 0, length - RECORD_HEADER_SIZE);
+        record.flip();
+
+        long recordOffset = this.pageFileEnd;
+        while (record.hasRemaining()) {
+            this.pageChannel.write(record, recordOffset + record.position());
+        }
+        this.pageFileEnd += length;
+        Slot old = this.slots.put(pageNum, new Slot(recordOffset, length));
+        this.liveBytes += length - (old == null ? 0 : old.length);
+
+        if (this.pageFileEnd > MIN_COMPACT_SIZE && this.pageFileEnd > 2 * this.liveBytes) {
+            this.compact();
+        }
+    }
+
+    @Override
+    void read(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            this.read(PartitionHandle.dataPageOffset(PartitionHandle.dataPageNum(offset) + i), bufs[start + i]);
+        }
+    }
+
+    @Override
+    void write(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            this.write(PartitionHandle.dataPageOffset(PartitionHandle.dataPageNum(offset) + i), bufs[start + i]);
+        }
+    }
+
+    @Override
+    synchronized void force() throws IOException {
+        this.pageChannel.force(false);
+    }
+
+    /**
+     * @return size of the page file in bytes
+     */
+    synchronized long getPageFileSize() {
+        return this.pageFileEnd;
+    }
+
+    /**
+     * Rebuilds the indirection map by scanning the page file, discarding a torn record
+     * at the end of the file.
+     */
+    private void loadSlots() throws IOException {
+        this.slots.clear();
+        this.liveBytes = 0;
+        long size = this.pageChannel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (offset + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            this.readFully(header, offset);
+            header.flip();
+            int pageNum = header.getInt();
+            int length = header.getInt();
+            if (length < RECORD_HEADER_SIZE || length > RECORD_HEADER_SIZE + PAGE_SIZE ||
+                    offset + length > size) {
+                break;
+            }
+            Slot old = this.slots.put(pageNum, new Slot(offset, length));
+            this.liveBytes += length - (old == null ? 0 : old.length);
+            offset += length;
+        }
+        if (offset < size) {
+            this.pageChannel.truncate(offset);
+        }
+        this.pageFileEnd = offset;
+    }
+
+    /**
+     * Copies the latest record of every page to a new page file, and replaces the page
+     * file with it.
+     */
+    private void compact() throws IOException {
+        File current = new File(pageFileName(this.getFileName()));
+        File compacted = new File(pageFileName(this.getFileName()) + ".tmp");
+        Map<Integer, Slot> newSlots = new HashMap<>();
+        long offset = 0;
+        try (RandomAccessFile newFile = new RandomAccessFile(compacted, "rw")) {
+            FileChannel newChannel = newFile.getChannel();
+            newChannel.truncate(0);
+            for (Map.Entry<Integer, Slot> entry : this.slots.entrySet()) {
+                Slot slot = entry.getValue();
+                ByteBuffer record = ByteBuffer.allocate(slot.length);
+                this.readFully(record, slot.offset);
+                record.flip();
+                while (record.hasRemaining()) {
+                    newChannel.write(record, offset + record.position());
+                }
+                newSlots.put(entry.getKey(), new Slot(offset, slot.length));
+                offset += slot.length;
+            }
+            newChannel.force(false);
+        }
+        this.pageFile.close();
+        Files.move(compacted.toPath(), current.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        this.pageFile = new RandomAccessFile(current, "rw");
+        this.pageChannel = this.pageFile.getChannel();
+        this.slots = newSlots;
+        this.pageFileEnd = offset;
+        this.liveBytes = offset;
+    }
+
+    private void readFully(ByteBuffer b, long offset) throws IOException {
+        long start = offset - b.position();
+        while (b.hasRemaining()) {
+            if (this.pageChannel.read(b, start + b.position()) < 0) {
+                throw new PageException("unexpected end of page file at offset " + (start + b.position()));
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
+    int ANY_TABLESPACE = -1; // lets the disk space manager choose where to place a partition
 
     @Override
     void close();
@@ -22,6 +25,51 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     int allocPart(int partNum);
 
+    /**
+     * Allocates a new partition with a specific partition number, placed in a specific
+     * tablespace and stored compressed or not. Used to recreate a partition during
+     * recovery where it was originally placed.
+     *
+     * @param partNum partition number of new partition
+     * @param tablespace index of tablespace, or ANY_TABLESPACE
+     * @param compressed whether the partition's pages are stored compressed
+     * @return partition number of new partition
+     */
+    default int allocPart(int partNum, int tablespace, boolean compressed) {
+        return allocPart(partNum);
+    }
+
+    /**
+     * Allocates a new partition in a specific tablespace (e.g. a data directory).
+     *
+     * @param tablespace index of tablespace, or ANY_TABLESPACE
+     * @return partition number of new partition
+     */
+    default int allocPartInTablespace(int tablespace) {
+        if (tablespace != ANY_TABLESPACE && (tablespace < 0 || tablespace >= getNumTablespaces())) {
+            throw new IllegalArgumentException("no tablespace " + tablespace);
+        }
+        return allocPart();
+    }
+
+    /**
+     * Allocates a new partition whose pages are stored compressed on disk. Reading and
+     * writing its pages works exactly as for any other partition. Implementations that
+     * do not support compression allocate an ordinary partition.
+     *
+     * @return partition number of new partition
+     */
+    default int allocCompressedPart() {
+        return allocPart();
+    }
+
+    /**
+     * @return number of tablespaces partitions can be allocated in
+     */
+    default int getNumTablespaces() {
+        return 1;
+    }
+
     /**
      * Releases a partition from use.
 
@@ -65,6 +113,106 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page into a buffer, which may be a direct buffer. Implementations that
+     * can read directly into the buffer override this; by default, the page is read into
+     * a byte array and copied (unless the buffer is just a wrapped page-sized array).
+     *
+     * @param page number of page to be read
+     * @param buf buffer to be filled with page data, from its position
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        if (isPageArray(buf)) {
+            readPage(page, buf.array());
+            buf.position(PAGE_SIZE);
+            return;
+        }
+        byte[] b = new byte[PAGE_SIZE];
+        readPage(page, b);
+        buf.put(b);
+    }
+
+    /**
+     * Writes to a page from a buffer, which may be a direct buffer. Implementations that
+     * can write directly from the buffer override this; by default, the buffer is copied
+     * to a byte array (unless it is just a wrapped page-sized array).
+     *
+     * @param page number of page to be written
+     * @param buf buffer that contains the new page data, from its position
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        if (isPageArray(buf)) {
+            writePage(page, buf.array());
+            buf.position(PAGE_SIZE);
+            return;
+        }
+        byte[] b = new byte[PAGE_SIZE];
+        buf.get(b);
+        writePage(page, b);
+    }
+
+    /**
+     * Reads a run of consecutive pages of a partition. Implementations may read
+     * physically contiguous pages with a single call to the OS.
+     *
+     * @param firstPage number of first page to be read
+     * @param count number of pages to be read
+     * @param bufs page-sized byte buffers; bufs[i] is filled with the data of page firstPage + i
+     */
+    default void readPages(long firstPage, int count, byte[][] bufs) {
+        checkPageRun(firstPage, count, bufs);
+        for (int i = 0; i < count; ++i) {
+            readPage(firstPage + i, bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to a run of consecutive pages of a partition. Implementations may write
+     * physically contiguous pages with a single call to the OS.
+     *
+     * @param firstPage number of first page to be written
+     * @param count number of pages to be written
+     * @param bufs page-sized byte buffers; bufs[i] contains the new data of page firstPage + i
+     */
+    default void writePages(long firstPage, int count, byte[][] bufs) {
+        checkPageRun(firstPage, count, bufs);
+        for (int i = 0; i < count; ++i) {
+            writePage(firstPage + i, bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to a run of consecutive pages of a partition, from buffers which may be
+     * direct buffers.
+     *
+     * @param firstPage number of first page to be written
+     * @param count number of pages to be written
+     * @param bufs buffers; bufs[i] contains the new data of page firstPage + i, from its position
+     */
+    default void writePages(long firstPage, int count, ByteBuffer[] bufs) {
+        checkPageRun(firstPage, count, bufs);
+        byte[][] arrays = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            if (!isPageArray(bufs[i])) {
+                for (int j = 0; j < count; ++j) {
+                    writePage(firstPage + j, bufs[j]);
+                }
+                return;
+            }
+            arrays[i] = bufs[i].array();
+        }
+        writePages(firstPage, count, arrays);
+        for (int i = 0; i < count; ++i) {
+            bufs[i].position(PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Forces all page writes made so far to durable storage. Implementations that
+     * force every write as it happens may treat this as a no-op.
+     */
+    void sync();
+
     /**
      * Checks if a page is allocated
      *
@@ -73,6 +221,48 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * Checks the arguments of readPages/writePages.
+     * @throws IllegalArgumentException if the run is empty, spans more than one
+     * partition, or the buffers are not page-sized
+     */
+    static void checkPageRun(long firstPage, int count, byte[][] bufs) {
+        if (count <= 0 || bufs.length < count) {
+            throw new IllegalArgumentException("bad page count " + count);
+        }
+        if (getPartNum(firstPage) != getPartNum(firstPage + count - 1)) {
+            throw new IllegalArgumentException("page run cannot span multiple partitions");
+        }
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].length != PAGE_SIZE) {
+                throw new IllegalArgumentException("expected page-sized buffers");
+            }
+        }
+    }
+
+    static void checkPageRun(long firstPage, int count, ByteBuffer[] bufs) {
+        if (count <= 0 || bufs.length < count) {
+            throw new IllegalArgumentException("bad page count " + count);
+        }
+        if (getPartNum(firstPage) != getPartNum(firstPage + count - 1)) {
+            throw new IllegalArgumentException("page run cannot span multiple partitions");
+        }
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].remaining() != PAGE_SIZE) {
+                throw new IllegalArgumentException("expected page-sized buffers");
+            }
+        }
+    }
+
+    /**
+     * @param buf buffer
+     * @return whether buf is a whole page-sized array, wrapped
+     */
+    static boolean isPageArray(ByteBuffer buf) {
+        return buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0 &&
+               buf.array().length == PAGE_SIZE && buf.limit() == PAGE_SIZE;
+    }
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -1,14 +1,24 @@
 package edu.berkeley.cs186.database.io;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -26,9 +36,9 @@ import java.util.concurrent.locks.ReentrantLock;
  * the number of data pages that have been allocated under the header page (managing 2K header pages).
  * A single partition may therefore have a maximum of 64M data pages.
  *
- * Master and header pages are cached permanently in memory; changes to these are immediately flushed to
- * disk. This imposes a fairly small memory overhead (128M partitions have 2 pages cached). This caching
- * is done separately from the buffer manager's caching.
+ * Master and header pages are cached permanently in memory once a partition is first accessed; changes
+ * to these are immediately flushed to disk. This imposes a fairly small memory overhead (128M partitions
+ * have 2 pages cached). This caching is done separately from the buffer manager's caching.
  *
  * Virtual page numbers are 64-bit integers (Java longs) assigned to data pages in the following format:
  *       partition number * 10^10 + n
@@ -44,66 +54,217 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * Pages allocated with allocPage(partNum) are handed out from extents: runs of up to
+ * EXTENT_SIZE consecutive free data pages, found first-fit in the header page bitmaps and
+ * marked as allocated all at once, so that only one allocation per extent writes the master
+ * and header pages. When an extent runs past the end of the OS file, the file is extended
+ * to cover the whole extent with one write, so consecutively allocated pages are contiguous
+ * on disk and the file does not grow one page at a time. Pages of an extent that have not
+ * been handed out are freed when the partition is closed; after a crash, they stay allocated
+ * but unused (at most EXTENT_SIZE - 1 pages per partition).
+ *
+ * Partition files are opened lazily: at startup the database directory is only listed, and
+ * a partition's OS file is opened (and its master and header pages loaded) when the partition
+ * is first accessed. At most maxOpenFiles partition files are kept open; when more are needed,
+ * the least recently used files that are not in use are closed, to be reopened on next access.
+ *
+ * Partition files may be spread over several data directories (tablespaces), e.g. on
+ * separate disks. New partitions are placed round-robin across the data directories unless
+ * a tablespace is requested with allocPartInTablespace; partitions allocated by number are
+ * placed in the first data directory, except for the log partition, which is placed in
+ * its own log directory. A partition file is found in whichever directory it is in when
+ * the disk space manager starts up.
+ *
+ * Partitions allocated with allocCompressedPart store their data pages compressed, in a
+ * second OS file next to the partition's file (see CompressedPartitionHandle). This is
+ * meant for large, rarely updated partitions whose pages compress well.
+ *
+ * By default, every data page write is forced to disk before writePage returns. If the
+ * disk space manager is created with deferSync set, data page writes are only forced
+ * when sync() is called (by the recovery manager when it checkpoints) or when the
+ * partition is closed, so that many writes share a single force. The log partition is
+ * always forced on every write, which together with the recovery manager's
+ * pageFlushHook keeps the write-ahead logging guarantee intact. Changes to master and
+ * header pages (allocating and freeing pages and partitions) are always forced to disk
+ * before the operation returns, since restart recovery does not redo allocations that
+ * precede the oldest change in its dirty page table.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
     static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
     static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final int EXTENT_SIZE = 64; // max data pages reserved/preallocated at a time
+    static final int DEFAULT_MAX_OPEN_FILES = 128;
+
+    // Data directories (tablespaces); the first is the base directory of the database.
+    private List<String> dataDirs;
+
+    // Directory for the log partition.
+    private String logDir;
 
-    // Name of base directory.
-    private String dbDir;
+    // Counter to place new partitions round-robin across data directories.
+    private AtomicInteger tablespaceCounter;
 
-    // Info about each partition.
+    // Info about each partition. Page operations look partitions up without any
+    // manager-wide locking; only allocating and freeing partitions takes managerLock.
     private Map<Integer, PartitionHandle> partInfo;
 
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
+    // Lock for allocating and freeing partitions.
     private ReentrantLock managerLock;
 
     // recovery manager
-    private RecoveryManager recoveryManager;
+    RecoveryManager recoveryManager;
+
+    // Whether forcing data page writes is deferred until sync() is called.
+    boolean deferSync;
+
+    // Partitions whose OS files are open, in least to most recently used order.
+    // Synchronized on itself.
+    private LinkedHashMap<Integer, PartitionHandle> openFiles;
+
+    // Maximum number of partition files to keep open (may be exceeded while all are in use).
+    private int maxOpenFiles;
 
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
-     * if not present.
+     * if not present. Every data page write is forced to disk immediately.
      *
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
-        this.dbDir = dbDir;
+        this(dbDir, recoveryManager, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean deferSync) {
+        this(dbDir, recoveryManager, deferSync, DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     * @param maxOpenFiles maximum number of partition files to keep open at once
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean deferSync,
+                                int maxOpenFiles) {
+        this(Collections.singletonList(dbDir), dbDir, recoveryManager, deferSync, maxOpenFiles);
+    }
+
+    /**
+     * Initialize the disk space manager using the given data directories (tablespaces)
+     * and log directory. Creates the directories if not present. Every data page write
+     * is forced to disk immediately.
+     *
+     * @param dataDirs data directories; the first is the base directory of the database
+     * @param logDir directory for the log partition (may be one of the data directories)
+     */
+    public DiskSpaceManagerImpl(List<String> dataDirs, String logDir, RecoveryManager recoveryManager) {
+        this(dataDirs, logDir, recoveryManager, false, DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     * Initialize the disk space manager using the given data directories (tablespaces)
+     * and log directory. Creates the directories if not present.
+     *
+     * @param dataDirs data directories; the first is the base directory of the database
+     * @param logDir directory for the log partition (may be one of the data directories)
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     */
+    public DiskSpaceManagerImpl(List<String> dataDirs, String logDir, RecoveryManager recoveryManager,
+                                boolean deferSync) {
+        this(dataDirs, logDir, recoveryManager, deferSync, DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     * Initialize the disk space manager using the given data directories (tablespaces)
+     * and log directory. Creates the directories if not present.
+     *
+     * @param dataDirs data directories; the first is the base directory of the database
+     * @param logDir directory for the log partition (may be one of the data directories)
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     * @param maxOpenFiles maximum number of partition files to keep open at once
+     */
+    public DiskSpaceManagerImpl(List<String> dataDirs, String logDir, RecoveryManager recoveryManager,
+                                boolean deferSync, int maxOpenFiles) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles must be positive");
+        }
+        if (dataDirs.isEmpty()) {
+            throw new IllegalArgumentException("at least one data directory is needed");
+        }
+        this.dataDirs = new ArrayList<>(dataDirs);
+        this.logDir = logDir;
+        this.tablespaceCounter = new AtomicInteger(0);
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.deferSync = deferSync;
+        this.openFiles = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxOpenFiles = maxOpenFiles;
+        this.partInfo = new ConcurrentHashMap<>();
         this.partNumCounter = new AtomicInteger(0);
         this.managerLock = new ReentrantLock();
 
-        File dir = new File(dbDir);
-        if (!dir.exists()) {
-            if (!dir.mkdirs()) {
-                throw new PageException("could not initialize disk space manager - could not make directory");
+        Set<String> dirs = new LinkedHashSet<>(this.dataDirs);
+        dirs.add(logDir);
+        int maxFileNum = -1;
+        for (String dirName : dirs) {
+            File dir = new File(dirName);
+            if (!dir.exists()) {
+                if (!dir.mkdirs()) {
+                    throw new PageException("could not initialize disk space manager - could not make directory");
+                }
+                continue;
             }
-        } else {
-            int maxFileNum = -1;
             File[] files = dir.listFiles();
             if (files == null) {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
-                if (f.length() == 0) {
-                    if (!f.delete()) {
-                        throw new PageException("could not clean up unused file - " + f.getName());
+                String name = f.getName();
+                if (name.endsWith(CompressedPartitionHandle.SUFFIX)) {
+                    // page files are opened along with their partition's file, unless orphaned
+                    String partFileName = name.substring(0, name.length() - CompressedPartitionHandle.SUFFIX.length());
+                    if (!new File(dir, partFileName).exists() && !f.delete()) {
+                        throw new PageException("could not clean up unused file - " + name);
+                    }
+                    continue;
+                }
+                File pageFile = new File(CompressedPartitionHandle.pageFileName(f.getPath()));
+                if (f.length() == 0 || name.endsWith(".tmp")) {
+                    if (!f.delete() || (pageFile.exists() && !pageFile.delete())) {
+                        throw new PageException("could not clean up unused file - " + name);
                     }
                     continue;
                 }
-                int fileNum = Integer.parseInt(f.getName());
+                if (!name.chars().allMatch(Character::isDigit)) {
+                    // not a partition (e.g. the database's saved buffer pool contents)
+                    continue;
+                }
+                int fileNum = Integer.parseInt(name);
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
-                pi.open(dbDir + "/" + f.getName());
-                this.partInfo.put(fileNum, pi);
+                // opened on first access
+                PartitionHandle pi = pageFile.exists() ? this.newCompressedPartitionHandle(fileNum)
+                                                       : this.newPartitionHandle(fileNum);
+                pi.attach(dirName + "/" + f.getName());
+                if (this.partInfo.putIfAbsent(fileNum, pi) != null) {
+                    throw new PageException("could not initialize disk space manager - partition " +
+                                            fileNum + " found in more than one directory");
+                }
             }
-            this.partNumCounter.set(maxFileNum + 1);
         }
+        this.partNumCounter.set(maxFileNum + 1);
     }
 
     @Override
@@ -115,51 +276,103 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not close partition " + part.getKey() + ": " + e.getMessage());
             }
         }
+        synchronized (this.openFiles) {
+            this.openFiles.clear();
+        }
     }
 
     @Override
     public int allocPart() {
-        return this.allocPartHelper(this.partNumCounter.getAndIncrement());
+        int tablespace = Math.floorMod(this.tablespaceCounter.getAndIncrement(), this.dataDirs.size());
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), this.dataDirs.get(tablespace), false);
+    }
+
+    @Override
+    public int allocCompressedPart() {
+        int tablespace = Math.floorMod(this.tablespaceCounter.getAndIncrement(), this.dataDirs.size());
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), this.dataDirs.get(tablespace), true);
     }
 
     @Override
     public int allocPart(int partNum) {
+        return this.allocPart(partNum, ANY_TABLESPACE, false);
+    }
+
+    @Override
+    public int allocPart(int partNum, int tablespace, boolean compressed) {
         this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum) + 1);
-        return this.allocPartHelper(partNum);
+        // partitions allocated by number without a tablespace (the log and metadata
+        // tables) are placed deterministically; so are partitions recreated during
+        // recovery whose tablespace is no longer configured
+        String dir;
+        if (partNum == LogManager.LOG_PARTITION) {
+            dir = this.logDir;
+        } else if (tablespace >= 0 && tablespace < this.dataDirs.size()) {
+            dir = this.dataDirs.get(tablespace);
+        } else {
+            dir = this.dataDirs.get(0);
+        }
+        return this.allocPartHelper(partNum, dir, compressed);
     }
 
-    private int allocPartHelper(int partNum) {
-        PartitionHandle pi;
+    @Override
+    public int allocPartInTablespace(int tablespace) {
+        if (tablespace == ANY_TABLESPACE) {
+            return this.allocPart();
+        }
+        if (tablespace < 0 || tablespace >= this.dataDirs.size()) {
+            throw new IllegalArgumentException("no tablespace " + tablespace);
+        }
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), this.dataDirs.get(tablespace), false);
+    }
 
-        this.managerLock.lock();
+    @Override
+    public int getNumTablespaces() {
+        return this.dataDirs.size();
+    }
+
+    private int allocPartHelper(int partNum, String dir, boolean compressed) {
+        PartitionHandle pi = compressed ? this.newCompressedPartitionHandle(partNum) : this.newPartitionHandle(partNum);
+        // lock the partition before publishing it, so that no one can use it before it's opened
+        pi.partitionLock.writeLock().lock();
         try {
-            if (this.partInfo.containsKey(partNum)) {
-                throw new IllegalStateException("partition number " + partNum + " already exists");
+            this.managerLock.lock();
+            try {
+                if (this.partInfo.putIfAbsent(partNum, pi) != null) {
+                    throw new IllegalStateException("partition number " + partNum + " already exists");
+                }
+            } finally {
+                this.managerLock.unlock();
             }
 
-            pi = new PartitionHandle(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
-
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
-        try {
             // We must open partition only after logging, but we need to release the
             // manager lock first, in case the log manager is currently in the process
             // of allocating a new log page (for another txn's records).
             TransactionContext transaction = TransactionContext.getTransaction();
             if (transaction != null) {
-                recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
+                recoveryManager.logAllocPart(transaction.getTransNum(), partNum, this.tablespaceOf(dir), compressed);
             }
 
-            pi.open(dbDir + "/" + partNum);
+            pi.open(dir + "/" + partNum);
+            pi.forceMetadata();
+            this.fileOpened(pi, partNum);
             return partNum;
+        } catch (IOException e) {
+            throw new PageException("could not create partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
+    /**
+     * @param dir directory a partition is placed in
+     * @return index of the data directory, or ANY_TABLESPACE if it is not one
+     */
+    private int tablespaceOf(String dir) {
+        int tablespace = this.dataDirs.indexOf(dir);
+        return tablespace < 0 ? ANY_TABLESPACE : tablespace;
+    }
+
     @Override
     public void freePart(int partNum) {
         PartitionHandle pi;
@@ -170,12 +383,14 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             if (pi == null) {
                 throw new NoSuchElementException("no partition " + partNum);
             }
-            pi.partitionLock.lock();
+            pi.partitionLock.writeLock().lock();
         } finally {
             this.managerLock.unlock();
         }
+        String fileName = pi.getFileName();
         try {
             try {
+                pi.openFile();
                 pi.freeDataPages();
                 pi.close();
             } catch (IOException e) {
@@ -184,36 +399,40 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
             TransactionContext transaction = TransactionContext.getTransaction();
             if (transaction != null) {
-                recoveryManager.logFreePart(transaction.getTransNum(), partNum);
+                recoveryManager.logFreePart(transaction.getTransNum(), partNum,
+                                            this.tablespaceOf(new File(fileName).getParent()),
+                                            pi instanceof CompressedPartitionHandle);
+            }
+
+            synchronized (this.openFiles) {
+                this.openFiles.remove(partNum);
             }
 
-            File pf = new File(dbDir + "/" + partNum);
+            File pageFile = new File(CompressedPartitionHandle.pageFileName(fileName));
+            if (pageFile.exists() && !pageFile.delete()) {
+                throw new PageException("could not delete files for partition " + partNum);
+            }
+            File pf = new File(fileName);
             if (!pf.delete()) {
                 throw new PageException("could not delete files for partition " + partNum);
             }
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum, true);
         try {
             int pageNum = pi.allocPage();
             pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.forceMetadata();
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -224,22 +443,16 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
         int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
 
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum, true);
         try {
             pi.allocPage(headerIndex, pageIndex);
             pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.forceMetadata();
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -247,20 +460,14 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum, true);
         try {
             pi.freePage(pageNum);
+            pi.forceMetadata();
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -271,20 +478,13 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = getPartInfo(partNum, false);
         try {
             pi.readPage(pageNum, buf);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
@@ -295,48 +495,212 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = getPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.writePage(pageNum, buf);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.remaining() != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        PartitionHandle pi = getPartInfo(partNum, false);
         try {
-            pi.writePage(pageNum, buf);
+            pi.readPage(pageNum, buf);
         } catch (IOException e) {
-            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
     @Override
-    public boolean pageAllocated(long page) {
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.remaining() != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = getPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.writePage(pageNum, buf);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        DiskSpaceManager.checkPageRun(firstPage, count, bufs);
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        // scattering reads go through the channel's position, so they need the partition to themselves
+        PartitionHandle pi = getPartInfo(partNum, true);
+        try {
+            pi.readPages(pageNum, count, bufs);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void writePages(long firstPage, int count, byte[][] bufs) {
+        DiskSpaceManager.checkPageRun(firstPage, count, bufs);
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        PartitionHandle pi = getPartInfo(partNum, true);
+        try {
+            pi.writePages(pageNum, count, bufs);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void writePages(long firstPage, int count, ByteBuffer[] bufs) {
+        DiskSpaceManager.checkPageRun(firstPage, count, bufs);
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        PartitionHandle pi = getPartInfo(partNum, true);
+        try {
+            pi.writePages(pageNum, count, bufs);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        if (!this.deferSync) {
+            return;
+        }
+        for (PartitionHandle pi : this.partInfo.values()) {
+            // syncing excludes writers, so that no write can slip in between the force
+            // and clearing the partition's unsynced flag
+            pi.partitionLock.writeLock().lock();
+            try {
+                if (pi.isOpen()) {
+                    pi.sync();
+                }
+            } catch (IOException e) {
+                throw new PageException("could not sync partition: " + e.getMessage());
+            } finally {
+                pi.partitionLock.writeLock().unlock();
+            }
         }
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        PartitionHandle pi = getPartInfo(partNum, false);
         try {
             return !pi.isNotAllocatedPage(pageNum);
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
-    // Gets PartInfo, throws exception if not found.
-    private PartitionHandle getPartInfo(int partNum) {
+    /**
+     * Creates the (unopened) handle for a partition. Subclasses may override this to
+     * change how partition files are accessed.
+     *
+     * @param partNum partition number
+     * @return handle for the partition
+     */
+    PartitionHandle newPartitionHandle(int partNum) {
+        return new PartitionHandle(partNum, recoveryManager, deferSync);
+    }
+
+    /**
+     * Creates the (unopened) handle for a compressed partition.
+     *
+     * @param partNum partition number
+     * @return handle for the partition
+     */
+    PartitionHandle newCompressedPartitionHandle(int partNum) {
+        return new CompressedPartitionHandle(partNum, recoveryManager, deferSync);
+    }
+
+    // Gets PartInfo and locks it in shared or exclusive mode, throws exception if not found.
+    private PartitionHandle getPartInfo(int partNum, boolean exclusive) {
         PartitionHandle pi = this.partInfo.get(partNum);
         if (pi == null) {
             throw new NoSuchElementException("no partition " + partNum);
         }
+        Lock lock = exclusive ? pi.partitionLock.writeLock() : pi.partitionLock.readLock();
+        lock.lock();
+        if (!pi.isOpen()) {
+            // freed after we looked it up
+            lock.unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        try {
+            pi.openFile();
+            // the file can't be closed while we hold the partition lock
+            this.fileOpened(pi, partNum);
+        } catch (IOException e) {
+            lock.unlock();
+            throw new PageException("could not open partition " + partNum + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
         return pi;
     }
+
+    /**
+     * Marks a partition's open OS file as most recently used, and closes the least recently
+     * used files while more than maxOpenFiles are open. Files of partitions that are in use
+     * (locked by any thread) are skipped. Assumes that the partition lock of pi is held.
+     */
+    private void fileOpened(PartitionHandle pi, int partNum) {
+        synchronized (this.openFiles) {
+            this.openFiles.put(partNum, pi);
+            Iterator<PartitionHandle> iter = this.openFiles.values().iterator();
+            while (this.openFiles.size() > this.maxOpenFiles && iter.hasNext()) {
+                PartitionHandle victim = iter.next();
+                // the current thread may hold the victim's lock further up the stack (e.g. while
+                // logging, which can allocate log pages), in which case the lock is reentrant
+                if (victim == pi || victim.partitionLock.isWriteLockedByCurrentThread() ||
+                        !victim.partitionLock.writeLock().tryLock()) {
+                    continue;
+                }
+                try {
+                    victim.closeFile();
+                    iter.remove();
+                } catch (IOException e) {
+                    throw new PageException("could not close partition file: " + e.getMessage());
+                } finally {
+                    victim.partitionLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of partition OS files currently open
+     */
+    int numOpenFiles() {
+        synchronized (this.openFiles) {
+            return this.openFiles.size();
+        }
+    }
 }
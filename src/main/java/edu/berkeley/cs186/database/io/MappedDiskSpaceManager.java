@@ -0,0 +1,67 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.List;
+
+/**
+ * Disk space manager that accesses data pages through memory mapped partition files,
+ * so that reading or writing a page is a copy to or from the mapping rather than a
+ * system call. Partition files use the same format as DiskSpaceManagerImpl (aside
+ * from being extended to the end of the last mapped chunk), so either implementation
+ * can open a database directory created by the other.
+ */
+public class MappedDiskSpaceManager extends DiskSpaceManagerImpl {
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. Every data page write is forced to disk immediately.
+     *
+     * @param dbDir base directory of the database
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean deferSync) {
+        super(dbDir, recoveryManager, deferSync);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     * @param maxOpenFiles maximum number of partition files to keep open (and mapped) at once
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean deferSync,
+                                  int maxOpenFiles) {
+        super(dbDir, recoveryManager, deferSync, maxOpenFiles);
+    }
+
+    /**
+     * Initialize the disk space manager using the given data directories (tablespaces)
+     * and log directory. Creates the directories if not present.
+     *
+     * @param dataDirs data directories; the first is the base directory of the database
+     * @param logDir directory for the log partition (may be one of the data directories)
+     * @param deferSync if true, data page writes are only forced to disk on sync()
+     * @param maxOpenFiles maximum number of partition files to keep open (and mapped) at once
+     */
+    public MappedDiskSpaceManager(List<String> dataDirs, String logDir, RecoveryManager recoveryManager,
+                                  boolean deferSync, int maxOpenFiles) {
+        super(dataDirs, logDir, recoveryManager, deferSync, maxOpenFiles);
+    }
+
+    @Override
+    PartitionHandle newPartitionHandle(int partNum) {
+        return new MappedPartitionHandle(partNum, recoveryManager, deferSync);
+    }
+}
@@ -0,0 +1,221 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Partition handle that serves data page reads and writes out of memory mapped
+ * regions of the partition's OS file, instead of issuing a read/write call per page.
+ *
+ * The file is mapped in chunks that are created as pages in them are first accessed.
+ * Chunks double in size (1M, 2M, 4M, ...) up to 1G, after which every chunk is 1G, so
+ * small partitions stay small while large partitions need only a handful of mappings:
+ *
+ *    chunk:   0     1         2                   ...  10      11      12
+ *    size:   [1M][  2M  ][      4M      ]          ...  [ 1G ] [ 1G ] [ 1G ] ...
+ *
+ * Mapping a chunk extends the OS file to the end of the chunk. Master and header pages
+ * are still read and written through the file channel. Forcing writes to disk only
+ * forces the chunks written to since the last force, and closing the file unmaps its
+ * chunks right away (where the JVM allows it; otherwise the mappings, and the file
+ * they hold open, are released once the chunks are garbage collected).
+ */
+class MappedPartitionHandle extends PartitionHandle {
+    // Size of the first chunk, in bytes.
+    static final long BASE_CHUNK_SIZE = 1L << 20;
+    // Number of chunks that double in size; every chunk after these is MAX_CHUNK_SIZE bytes.
+    static final int NUM_GROWING_CHUNKS = 11;
+    // Size of the largest chunk, in bytes.
+    static final long MAX_CHUNK_SIZE = BASE_CHUNK_SIZE << (NUM_GROWING_CHUNKS - 1);
+
+    // Mapped chunks of the file, indexed by chunk number (null if not yet mapped)
+    private List<MappedByteBuffer> chunks;
+
+    // Chunks written to since they were last forced to disk (guarded by chunks)
+    private final BitSet unforcedChunks = new BitSet();
+
+    MappedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean deferSync) {
+        super(partNum, recoveryManager, deferSync);
+        this.chunks = new ArrayList<>();
+    }
+
+    @Override
+    void closeFile() throws IOException {
+        super.closeFile();
+        // the partition lock is held exclusively, so no views of the chunks are in use
+        synchronized (this.chunks) {
+            for (MappedByteBuffer chunk : this.chunks) {
+                if (chunk != null) {
+                    unmap(chunk);
+                }
+            }
+            this.chunks.clear();
+            this.unforcedChunks.clear();
+        }
+    }
+
+    @Override
+    void read(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = this.getChunk(offset);
+        b.position((int) (offset - chunkStart(chunkIndex(offset))));
+        b.limit(b.position() + PAGE_SIZE);
+        buf.put(b);
+    }
+
+    @Override
+    void write(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = this.getChunk(offset);
+        b.position((int) (offset - chunkStart(chunkIndex(offset))));
+        ByteBuffer page = buf.duplicate();
+        page.limit(page.position() + PAGE_SIZE);
+        b.put(page);
+        buf.position(buf.position() + PAGE_SIZE);
+        synchronized (this.chunks) {
+            this.unforcedChunks.set(chunkIndex(offset));
+        }
+    }
+
+    @Override
+    void read(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        // the pages may span multiple chunks, and copying is all that's needed anyways
+        for (int i = 0; i < count; ++i) {
+            this.read(offset + (long) i * PAGE_SIZE, bufs[start + i]);
+        }
+    }
+
+    @Override
+    void write(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            this.write(offset + (long) i * PAGE_SIZE, bufs[start + i]);
+        }
+    }
+
+    @Override
+    void force() {
+        synchronized (this.chunks) {
+            for (int i = this.unforcedChunks.nextSetBit(0); i >= 0; i = this.unforcedChunks.nextSetBit(i + 1)) {
+                this.chunks.get(i).force();
+            }
+            this.unforcedChunks.clear();
+        }
+    }
+
+    /**
+     * @return number of chunks currently mapped
+     */
+    int numMappedChunks() {
+        synchronized (this.chunks) {
+            int count = 0;
+            for (MappedByteBuffer chunk : this.chunks) {
+                if (chunk != null) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return number of chunks written to since they were last forced to disk
+     */
+    int numUnforcedChunks() {
+        synchronized (this.chunks) {
+            return this.unforcedChunks.cardinality();
+        }
+    }
+
+    /**
+     * Unmaps a chunk without waiting for it to be garbage collected. The chunk (and any
+     * view of it) must not be accessed afterwards. Java has no public API for this, so
+     * this goes through Unsafe#invokeCleaner (Java 9+) or the buffer's cleaner (Java 8),
+     * and leaves the chunk to the garbage collector if neither is available.
+     * @param chunk chunk to unmap
+     */
+    private static void unmap(MappedByteBuffer chunk) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), chunk);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not Java 9+
+        }
+        try {
+            Method cleanerMethod = chunk.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(chunk);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // unmapped once garbage collected
+        }
+    }
+
+    /**
+     * Gets a view of the chunk containing offset, mapping the chunk if necessary.
+     * @param offset offset in OS file
+     * @return buffer over the chunk, independent of other views of the chunk
+     */
+    private ByteBuffer getChunk(long offset) throws IOException {
+        int index = chunkIndex(offset);
+        MappedByteBuffer chunk;
+        // readers and writers only hold the partition lock in shared mode
+        synchronized (this.chunks) {
+            while (this.chunks.size() <= index) {
+                this.chunks.add(null);
+            }
+            chunk = this.chunks.get(index);
+            if (chunk == null) {
+                chunk = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, chunkStart(index), chunkSize(index));
+                this.chunks.set(index, chunk);
+            }
+        }
+        return chunk.duplicate();
+    }
+
+    /**
+     * @param offset offset in OS file
+     * @return index of the chunk containing offset
+     */
+    static int chunkIndex(long offset) {
+        long growingEnd = chunkStart(NUM_GROWING_CHUNKS);
+        if (offset >= growingEnd) {
+            return NUM_GROWING_CHUNKS + (int) ((offset - growingEnd) / MAX_CHUNK_SIZE);
+        }
+        // chunk k starts at (2^k - 1) * BASE_CHUNK_SIZE
+        return 63 - Long.numberOfLeadingZeros(offset / BASE_CHUNK_SIZE + 1);
+    }
+
+    /**
+     * @param index chunk index
+     * @return offset in OS file of the start of the chunk
+     */
+    static long chunkStart(int index) {
+        if (index > NUM_GROWING_CHUNKS) {
+            return chunkStart(NUM_GROWING_CHUNKS) + (index - NUM_GROWING_CHUNKS) * MAX_CHUNK_SIZE;
+        }
+        return ((1L << index) - 1) * BASE_CHUNK_SIZE;
+    }
+
+    /**
+     * @param index chunk index
+     * @return size of the chunk in bytes
+     */
+    static long chunkSize(int index) {
+        return Math.min(BASE_CHUNK_SIZE << Math.min(index, NUM_GROWING_CHUNKS), MAX_CHUNK_SIZE);
+    }
+}
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.io;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.IOException;
@@ -11,19 +12,29 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.EXTENT_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
 
 class PartitionHandle implements AutoCloseable {
-    // Lock on the partition.
-    ReentrantLock partitionLock;
+    // Lock on the partition. Reading/writing data pages and checking whether a page is
+    // allocated only need a shared lock; anything that modifies the master/header pages,
+    // or uses the file channel's position, needs an exclusive lock.
+    ReentrantReadWriteLock partitionLock;
 
-    // Underlying OS file/file channel.
+    // Name of the OS file the partition is stored in, null once the partition is closed.
+    private String fileName;
+
+    // Underlying OS file/file channel. The file is only opened when the partition is first
+    // accessed, and may be closed (and later reopened) to limit the number of open files.
     private RandomAccessFile file;
-    private FileChannel fileChannel;
+    volatile FileChannel fileChannel;
+
+    // Whether the master and header pages have been loaded from the OS file
+    private boolean loaded;
 
     // Contents of the master page of this partition
     // Ideally would be an unsigned short array but Java doesn't have unsigned types
@@ -38,69 +49,206 @@ class PartitionHandle implements AutoCloseable {
     // Partition number
     private int partNum;
 
+    // Whether forcing data page writes to disk is deferred until sync() is called
+    private boolean deferSync;
+
+    // Whether there are data page writes that have not yet been forced to disk
+    private volatile boolean unsynced;
+
+    // Whether the master or header pages have been written since they were last forced
+    // to disk (see forceMetadata)
+    private boolean metadataUnsynced;
+
+    // Current extent: data pages in [extentStart, extentEnd) are marked as allocated in the
+    // header page, but have not been handed out by allocPage() yet
+    private int extentStart;
+    private int extentEnd;
+
+    // Every data page numbered below freeHint is allocated (or in the current extent)
+    private int freeHint;
+
+    // Number of writes of the master page or a header page
+    private long numMetadataWrites;
+
     PartitionHandle(int partNum, RecoveryManager recoveryManager) {
+        this(partNum, recoveryManager, false);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean deferSync) {
         this.masterPage = new int[MAX_HEADER_PAGES];
         this.headerPages = new byte[MAX_HEADER_PAGES][];
-        this.partitionLock = new ReentrantLock();
+        this.partitionLock = new ReentrantReadWriteLock();
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        // The log must always be forced immediately, since the recovery manager
+        // relies on flushed log pages being durable (write-ahead logging).
+        this.deferSync = deferSync && partNum != LogManager.LOG_PARTITION;
+        this.unsynced = false;
+        this.metadataUnsynced = false;
+        this.extentStart = 0;
+        this.extentEnd = 0;
+        this.freeHint = 0;
+        this.loaded = false;
     }
 
     /**
-     * Opens the OS file and loads master and header pages.
+     * Opens the OS file and loads master and header pages, creating the file if it
+     * does not exist.
      * @param fileName name of OS file partition is stored in
      */
     void open(String fileName) {
-        assert (this.fileChannel == null);
+        this.attach(fileName);
         try {
-            this.file = new RandomAccessFile(fileName, "rw");
-            this.fileChannel = this.file.getChannel();
-            long length = this.file.length();
-            if (length == 0) {
-                // new file, write empty master page
-                this.writeMasterPage();
-            } else {
-                // old file, read in master page + header pages
-                ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-                this.fileChannel.read(b, PartitionHandle.masterPageOffset());
-                b.position(0);
-                for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-                    this.masterPage[i] = Short.toUnsignedInt(b.getShort());
-                    if (PartitionHandle.headerPageOffset(i) < length) {
-                        // Load header pages that were already in the file
-                        byte[] headerPage = new byte[PAGE_SIZE];
-                        this.headerPages[i] = headerPage;
-                        this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
-                    }
-                }
-            }
+            this.openFile();
         } catch (IOException e) {
             throw new PageException("Could not open or read file: " + e.getMessage());
         }
     }
 
+    /**
+     * Associates the partition with an existing OS file, without opening it. The file
+     * is opened, and the master and header pages are loaded, by openFile().
+     * @param fileName name of OS file partition is stored in
+     */
+    void attach(String fileName) {
+        assert (this.fileName == null);
+        this.fileName = fileName;
+    }
+
+    /**
+     * Opens the OS file if it is not already open, loading the master and header pages
+     * the first time it is opened. Assumes that the partition lock is held (in either mode).
+     * @return whether the file was opened by this call
+     */
+    boolean openFile() throws IOException {
+        if (this.fileChannel != null) {
+            return false;
+        }
+        // readers only hold the partition lock in shared mode
+        synchronized (this) {
+            if (this.fileChannel != null) {
+                return false;
+            }
+            RandomAccessFile file = new RandomAccessFile(this.fileName, "rw");
+            FileChannel fileChannel = file.getChannel();
+            try {
+                if (!this.loaded) {
+                    this.load(fileChannel);
+                }
+                this.fileOpening();
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            this.file = file;
+            this.fileChannel = fileChannel;
+            return true;
+        }
+    }
+
+    /**
+     * Called when the OS file is being opened, before the partition's data pages can be
+     * accessed. Subclasses may override this to open any other files they need.
+     */
+    void fileOpening() throws IOException {}
+
+    /**
+     * Loads the master and header pages, or writes an empty master page to a new file.
+     * @param fileChannel channel of the OS file
+     */
+    private void load(FileChannel fileChannel) throws IOException {
+        long length = fileChannel.size();
+        if (length == 0) {
+            // new file, write empty master page
+            this.writeMasterPage(fileChannel);
+        } else {
+            // old file, read in master page + header pages
+            ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
+            fileChannel.read(b, PartitionHandle.masterPageOffset());
+            b.position(0);
+            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                this.masterPage[i] = Short.toUnsignedInt(b.getShort());
+                if (PartitionHandle.headerPageOffset(i) < length) {
+                    // Load header pages that were already in the file
+                    byte[] headerPage = new byte[PAGE_SIZE];
+                    this.headerPages[i] = headerPage;
+                    fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
+                }
+            }
+        }
+        this.loaded = true;
+    }
+
+    /**
+     * Closes the OS file (if open), forcing any unsynced writes to disk first. The
+     * partition stays open, and the file is reopened by the next openFile(). Assumes
+     * that the partition lock is held exclusively.
+     */
+    void closeFile() throws IOException {
+        if (this.fileChannel == null) {
+            return;
+        }
+        this.sync();
+        this.forceMetadata();
+        this.file.close();
+        this.fileChannel.close();
+        this.file = null;
+        this.fileChannel = null;
+    }
+
     @Override
     public void close() throws IOException {
-        this.partitionLock.lock();
+        this.partitionLock.writeLock().lock();
         try {
+            if (this.extentStart < this.extentEnd && this.isOpen()) {
+                this.openFile();
+                this.releaseExtent();
+            }
+            this.closeFile();
             Arrays.fill(this.headerPages, null);
-            this.file.close();
-            this.fileChannel.close();
+            this.fileName = null;
         } finally {
-            this.partitionLock.unlock();
+            this.partitionLock.writeLock().unlock();
         }
     }
 
+    /**
+     * @return name of the OS file the partition is stored in (null if closed)
+     */
+    String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * @return whether the partition is open (its OS file may not be)
+     */
+    boolean isOpen() {
+        return this.fileName != null;
+    }
+
+    /**
+     * @return whether the partition's OS file is open
+     */
+    boolean isFileOpen() {
+        return this.fileChannel != null;
+    }
+
     /**
      * Writes the master page to disk.
      */
     private void writeMasterPage() throws IOException {
+        this.writeMasterPage(this.fileChannel);
+    }
+
+    private void writeMasterPage(FileChannel fileChannel) throws IOException {
         ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             b.putShort((short) masterPage[i]);
         }
         b.position(0);
-        this.fileChannel.write(b, PartitionHandle.masterPageOffset());
+        fileChannel.write(b, PartitionHandle.masterPageOffset());
+        this.metadataUnsynced = true;
+        ++this.numMetadataWrites;
     }
 
     /**
@@ -110,42 +258,142 @@ class PartitionHandle implements AutoCloseable {
     private void writeHeaderPage(int headerIndex) throws IOException {
         ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex]);
         this.fileChannel.write(b, PartitionHandle.headerPageOffset(headerIndex));
+        this.metadataUnsynced = true;
+        ++this.numMetadataWrites;
     }
 
     /**
-     * Allocates a new page in the partition.
+     * Forces changes to the master and header pages to disk, if there are any. Unlike
+     * data page writes, these are never deferred: restart recovery only redoes page
+     * allocations logged after the oldest recLSN in the DPT, so an allocation must be
+     * on disk by the time it returns. Assumes that the partition lock is held exclusively.
+     */
+    void forceMetadata() throws IOException {
+        if (this.metadataUnsynced) {
+            this.fileChannel.force(false);
+            this.metadataUnsynced = false;
+        }
+    }
+
+    /**
+     * @return number of writes of the master page or a header page
+     */
+    long getNumMetadataWrites() {
+        return this.numMetadataWrites;
+    }
+
+    /**
+     * @return whether the master or header pages have changes not yet forced to disk
+     */
+    boolean hasUnsyncedMetadata() {
+        return this.metadataUnsynced;
+    }
+
+    /**
+     * Allocates a new page in the partition. Pages are handed out in order from the
+     * current extent, a run of consecutive data pages already marked as allocated, so
+     * that pages allocated one after another are physically contiguous in the OS file,
+     * and only reserving an extent writes the master and header pages.
      * @return data page number
      */
     int allocPage() throws IOException {
-        int headerIndex = -1;
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-            if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
-                headerIndex = i;
-                break;
-            }
-        }
-        if (headerIndex == -1) {
-            throw new PageException("no free pages - partition has reached max size");
+        if (this.extentStart == this.extentEnd) {
+            this.reserveExtent();
         }
+        int pageNum = this.extentStart++;
+        this.logAllocPage(pageNum);
+        return pageNum;
+    }
 
-        byte[] headerBytes = this.headerPages[headerIndex];
-
-        int pageIndex = -1;
-        if (headerBytes == null) {
-            pageIndex = 0;
-        } else {
-            for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
-                if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
-                    pageIndex = i;
-                    break;
-                }
+    /**
+     * Reserves the next extent: the first run of (up to EXTENT_SIZE) free data pages
+     * that does not cross a header page. The whole run is marked as allocated with a
+     * single write of the master and header pages. Data pages of the extent past the end
+     * of the OS file are preallocated with a single write, so that writing to them later
+     * does not grow the file one page at a time. Pages of the extent that have not been
+     * handed out are freed again by releaseExtent(); if the database crashes first, they
+     * stay allocated without being used.
+     */
+    private void reserveExtent() throws IOException {
+        for (int headerIndex = this.freeHint / DATA_PAGES_PER_HEADER; headerIndex < MAX_HEADER_PAGES; ++headerIndex) {
+            if (this.masterPage[headerIndex] >= DATA_PAGES_PER_HEADER) {
+                continue;
+            }
+            byte[] headerBytes = this.headerPages[headerIndex];
+            int pageIndex = 0;
+            if (headerIndex == this.freeHint / DATA_PAGES_PER_HEADER) {
+                pageIndex = this.freeHint % DATA_PAGES_PER_HEADER;
             }
-            if (pageIndex == -1) {
-                throw new PageException("header page should have free space, but doesn't");
+            while (pageIndex < DATA_PAGES_PER_HEADER) {
+                if (headerBytes != null && pageIndex % 8 == 0 && headerBytes[pageIndex / 8] == (byte) 0xFF) {
+                    // skip 8 allocated pages at a time
+                    pageIndex += 8;
+                } else if (headerBytes != null && Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ONE) {
+                    ++pageIndex;
+                } else {
+                    int runEnd = pageIndex;
+                    while (runEnd < DATA_PAGES_PER_HEADER && runEnd - pageIndex < EXTENT_SIZE &&
+                            (headerBytes == null || Bits.getBit(headerBytes, runEnd) == Bits.Bit.ZERO)) {
+                        ++runEnd;
+                    }
+                    if (headerBytes == null) {
+                        headerBytes = new byte[PAGE_SIZE];
+                        this.headerPages[headerIndex] = headerBytes;
+                    }
+                    for (int i = pageIndex; i < runEnd; ++i) {
+                        Bits.setBit(headerBytes, i, Bits.Bit.ONE);
+                    }
+                    this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+                    this.extentStart = headerIndex * DATA_PAGES_PER_HEADER + pageIndex;
+                    this.extentEnd = headerIndex * DATA_PAGES_PER_HEADER + runEnd;
+                    // every page before the extent is allocated
+                    this.freeHint = this.extentEnd;
+                    this.preallocate(this.extentStart, this.extentEnd);
+                    this.writeMasterPage();
+                    this.writeHeaderPage(headerIndex);
+                    return;
+                }
             }
         }
+        throw new PageException("no free pages - partition has reached max size");
+    }
 
-        return this.allocPage(headerIndex, pageIndex);
+    /**
+     * Frees the pages of the current extent that have not been handed out yet.
+     */
+    private void releaseExtent() throws IOException {
+        if (this.extentStart == this.extentEnd) {
+            return;
+        }
+        int headerIndex = this.extentStart / DATA_PAGES_PER_HEADER;
+        byte[] headerBytes = this.headerPages[headerIndex];
+        for (int pageNum = this.extentStart; pageNum < this.extentEnd; ++pageNum) {
+            Bits.setBit(headerBytes, pageNum % DATA_PAGES_PER_HEADER, Bits.Bit.ZERO);
+        }
+        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
+        this.freeHint = Math.min(this.freeHint, this.extentStart);
+        this.extentEnd = this.extentStart;
+        this.writeMasterPage();
+        this.writeHeaderPage(headerIndex);
+    }
+
+    /**
+     * Extends the OS file with zeroed data pages up to the end of a run of data pages.
+     * @param startPageNum first data page number of the run
+     * @param endPageNum data page number after the last page of the run (must be managed by
+     *                   the same header page as startPageNum)
+     */
+    void preallocate(int startPageNum, int endPageNum) throws IOException {
+        long fileEnd = this.fileChannel.size();
+        long startOffset = PartitionHandle.dataPageOffset(startPageNum);
+        int skip = (int) Math.max(0, (fileEnd - startOffset + PAGE_SIZE - 1) / PAGE_SIZE);
+        int count = endPageNum - startPageNum - skip;
+        if (count <= 0) {
+            return;
+        }
+        byte[][] zeros = new byte[count][];
+        Arrays.fill(zeros, new byte[PAGE_SIZE]);
+        this.write(startOffset + (long) skip * PAGE_SIZE, PartitionHandle.wrap(zeros, 0, count), 0, count);
     }
 
     /**
@@ -155,6 +403,11 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
+        int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
+        if (this.isReservedPage(pageNum)) {
+            // the page is reserved, but not handed out: give the rest of the extent back
+            this.releaseExtent();
+        }
         byte[] headerBytes = this.headerPages[headerIndex];
         if (headerBytes == null) {
             headerBytes = new byte[PAGE_SIZE];
@@ -170,18 +423,24 @@ class PartitionHandle implements AutoCloseable {
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
         this.masterPage[headerIndex] = Bits.countBits(headerBytes);
 
-        int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
+        this.logAllocPage(pageNum);
+        this.writeMasterPage();
+        this.writeHeaderPage(headerIndex);
 
+        return pageNum;
+    }
+
+    /**
+     * Logs the allocation of a page, if done by a transaction.
+     * @param pageNum data page number of the new page
+     */
+    private void logAllocPage(int pageNum) {
         TransactionContext transaction = TransactionContext.getTransaction();
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         if (transaction != null) {
             recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
         }
         recoveryManager.diskIOHook(vpn);
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
-
-        return pageNum;
     }
 
     /**
@@ -197,7 +456,7 @@ class PartitionHandle implements AutoCloseable {
             throw new NoSuchElementException("cannot free unallocated page");
         }
 
-        if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ZERO) {
+        if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ZERO || this.isReservedPage(pageNum)) {
             throw new NoSuchElementException("cannot free unallocated page");
         }
 
@@ -225,41 +484,220 @@ class PartitionHandle implements AutoCloseable {
         }
         recoveryManager.diskIOHook(vpn);
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
+        this.freeHint = Math.min(this.freeHint, pageNum);
         this.masterPage[headerIndex] = Bits.countBits(headerBytes);
         this.writeMasterPage();
         this.writeHeaderPage(headerIndex);
     }
 
     /**
-     * Reads in a data page. Assumes that the partition lock is held.
+     * Reads in a data page. Assumes that the partition lock is held (in either mode).
      * @param pageNum data page number to read in
      * @param buf output buffer to be filled with page - assumed to be page size
      */
     void readPage(int pageNum, byte[] buf) throws IOException {
+        this.readPage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Reads in a data page. Assumes that the partition lock is held (in either mode).
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page, from its position - assumed to
+     *            have a page of space remaining
+     */
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
+        this.read(PartitionHandle.dataPageOffset(pageNum), buf);
     }
 
     /**
-     * Writes to a data page. Assumes that the partition lock is held.
+     * Writes to a data page. Assumes that the partition lock is held (in either mode).
      * @param pageNum data page number to write to
      * @param buf input buffer with new contents of page - assumed to be page size
      */
     void writePage(int pageNum, byte[] buf) throws IOException {
+        this.writePage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Writes to a data page. Assumes that the partition lock is held (in either mode).
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page, from its position - assumed
+     *            to have a page remaining
+     */
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
+        this.write(PartitionHandle.dataPageOffset(pageNum), buf);
+        if (this.deferSync) {
+            this.unsynced = true;
+        } else {
+            this.force();
+        }
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Reads in a run of consecutive data pages. Pages that are physically contiguous
+     * in the OS file (i.e. not separated by a header page) are read with a single
+     * scattering read. Assumes that the partition lock is held exclusively.
+     * @param firstPageNum data page number of the first page to read in
+     * @param count number of pages to read in
+     * @param bufs output buffers to be filled with the pages - assumed to be page size
+     */
+    void readPages(int firstPageNum, int count, byte[][] bufs) throws IOException {
+        this.readPages(firstPageNum, count, PartitionHandle.wrap(bufs, 0, count));
+    }
+
+    /**
+     * Reads in a run of consecutive data pages, into buffers. Assumes that the partition
+     * lock is held exclusively.
+     * @param firstPageNum data page number of the first page to read in
+     * @param count number of pages to read in
+     * @param bufs output buffers to be filled with the pages - assumed to have a page of
+     *             space remaining
+     */
+    void readPages(int firstPageNum, int count, ByteBuffer[] bufs) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            if (this.isNotAllocatedPage(firstPageNum + i)) {
+                throw new PageException("page " + (firstPageNum + i) + " is not allocated");
+            }
+        }
+        for (int i = 0; i < count; ) {
+            int runLength = PartitionHandle.contiguousRunLength(firstPageNum + i, count - i);
+            this.read(PartitionHandle.dataPageOffset(firstPageNum + i), bufs, i, runLength);
+            i += runLength;
+        }
+    }
+
+    /**
+     * Writes to a run of consecutive data pages. Pages that are physically contiguous
+     * in the OS file (i.e. not separated by a header page) are written with a single
+     * gathering write, and all the writes share a single force. Assumes that the
+     * partition lock is held exclusively.
+     * @param firstPageNum data page number of the first page to write to
+     * @param count number of pages to write to
+     * @param bufs input buffers with new contents of the pages - assumed to be page size
+     */
+    void writePages(int firstPageNum, int count, byte[][] bufs) throws IOException {
+        this.writePages(firstPageNum, count, PartitionHandle.wrap(bufs, 0, count));
+    }
+
+    /**
+     * Writes to a run of consecutive data pages, from buffers. Assumes that the partition
+     * lock is held exclusively.
+     * @param firstPageNum data page number of the first page to write to
+     * @param count number of pages to write to
+     * @param bufs input buffers with new contents of the pages - assumed to have a page
+     *             remaining
+     */
+    void writePages(int firstPageNum, int count, ByteBuffer[] bufs) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            if (this.isNotAllocatedPage(firstPageNum + i)) {
+                throw new PageException("page " + (firstPageNum + i) + " is not allocated");
+            }
+        }
+        for (int i = 0; i < count; ) {
+            int runLength = PartitionHandle.contiguousRunLength(firstPageNum + i, count - i);
+            this.write(PartitionHandle.dataPageOffset(firstPageNum + i), bufs, i, runLength);
+            i += runLength;
+        }
+        if (this.deferSync) {
+            this.unsynced = true;
+        } else {
+            this.force();
+        }
+
+        for (int i = 0; i < count; ++i) {
+            long vpn = DiskSpaceManager.getVirtualPageNum(partNum, firstPageNum + i);
+            recoveryManager.diskIOHook(vpn);
+        }
+    }
+
+    /**
+     * Forces any data page writes that have not yet been forced to disk. A single
+     * force covers every write made since the last sync. Assumes that the partition
+     * lock is held exclusively.
+     */
+    void sync() throws IOException {
+        if (this.unsynced) {
+            this.force();
+            this.unsynced = false;
+        }
+    }
+
+    /**
+     * Reads a page worth of data from the OS file, directly into buf (which may be a
+     * direct buffer).
+     * @param offset offset in OS file of the page
+     * @param buf output buffer - assumed to have a page of space remaining
+     */
+    void read(long offset, ByteBuffer buf) throws IOException {
+        long start = offset - buf.position();
+        while (buf.hasRemaining()) {
+            if (this.fileChannel.read(buf, start + buf.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes a page worth of data to the OS file, directly from buf (which may be a
+     * direct buffer).
+     * @param offset offset in OS file of the page
+     * @param buf input buffer - assumed to have a page remaining
+     */
+    void write(long offset, ByteBuffer buf) throws IOException {
+        long start = offset - buf.position();
+        while (buf.hasRemaining()) {
+            this.fileChannel.write(buf, start + buf.position());
+        }
+    }
+
+    /**
+     * Reads physically contiguous pages from the OS file with a single scattering read.
+     * @param offset offset in OS file of the first page
+     * @param bufs output buffers - assumed to have a page of space remaining
+     * @param start index in bufs of the buffer for the first page
+     * @param count number of pages to read
+     */
+    void read(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        ByteBuffer[] b = Arrays.copyOfRange(bufs, start, start + count);
+        this.fileChannel.position(offset);
+        while (b[count - 1].hasRemaining()) {
+            if (this.fileChannel.read(b) < 0) {
+                throw new PageException("unexpected end of file at offset " + this.fileChannel.position());
+            }
+        }
+    }
+
+    /**
+     * Writes physically contiguous pages to the OS file with a single gathering write.
+     * @param offset offset in OS file of the first page
+     * @param bufs input buffers - assumed to have a page remaining
+     * @param start index in bufs of the buffer for the first page
+     * @param count number of pages to write
+     */
+    void write(long offset, ByteBuffer[] bufs, int start, int count) throws IOException {
+        ByteBuffer[] b = Arrays.copyOfRange(bufs, start, start + count);
+        this.fileChannel.position(offset);
+        while (b[count - 1].hasRemaining()) {
+            this.fileChannel.write(b);
+        }
+    }
+
+    /**
+     * Forces data page writes to disk.
+     */
+    void force() throws IOException {
+        this.fileChannel.force(false);
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
@@ -274,7 +712,15 @@ class PartitionHandle implements AutoCloseable {
         if (masterPage[headerIndex] == 0) {
             return true;
         }
-        return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO;
+        return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO || this.isReservedPage(pageNum);
+    }
+
+    /**
+     * @param pageNum data page number
+     * @return true if the page is in the current extent, but has not been handed out yet
+     */
+    private boolean isReservedPage(int pageNum) {
+        return pageNum >= this.extentStart && pageNum < this.extentEnd;
     }
 
     /**
@@ -282,6 +728,7 @@ class PartitionHandle implements AutoCloseable {
      * @throws IOException
      */
     void freeDataPages() throws IOException {
+        this.releaseExtent();
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             if (masterPage[i] > 0) {
                 byte[] headerPage = headerPages[i];
@@ -294,6 +741,25 @@ class PartitionHandle implements AutoCloseable {
         }
     }
 
+    /**
+     * @param firstPageNum data page number of the first page in a run of pages
+     * @param count number of pages in the run
+     * @return number of pages at the start of the run that are physically contiguous
+     */
+    private static int contiguousRunLength(int firstPageNum, int count) {
+        // a header page follows the last data page managed by the previous header page
+        int untilNextHeader = DATA_PAGES_PER_HEADER - firstPageNum % DATA_PAGES_PER_HEADER;
+        return Math.min(count, untilNextHeader);
+    }
+
+    private static ByteBuffer[] wrap(byte[][] bufs, int start, int count) {
+        ByteBuffer[] b = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            b[i] = ByteBuffer.wrap(bufs[start + i]);
+        }
+        return b;
+    }
+
     /**
      * @return offset in OS file for master page
      */
@@ -322,7 +788,7 @@ class PartitionHandle implements AutoCloseable {
      * @param pageNum data page number
      * @return offset in OS file for data page
      */
-    private static long dataPageOffset(int pageNum) {
+    static long dataPageOffset(int pageNum) {
         // Consider the layout if we had 4 data pages per header:
         // Offset (in pages):  0  1  2  3  4  5  6  7  8  9 10
         // Page Type:         [M][H][D][D][D][D][H][D][D][D][D]
@@ -337,4 +803,16 @@ class PartitionHandle implements AutoCloseable {
         long otherHeaders = pageNum / DATA_PAGES_PER_HEADER;
         return (2 + otherHeaders + pageNum) * PAGE_SIZE;
     }
-}
\ No newline at end of file
+
+    /**
+     * @param offset offset in OS file of a data page
+     * @return data page number of the page
+     */
+    static int dataPageNum(long offset) {
+        // Inverse of dataPageOffset: after the master page and first header page, every
+        // group of DATA_PAGES_PER_HEADER + 1 pages has a header page at its end
+        long pagesAfterFirstHeader = offset / PAGE_SIZE - 2;
+        long otherHeaders = pagesAfterFirstHeader / (DATA_PAGES_PER_HEADER + 1);
+        return (int) (pagesAfterFirstHeader - otherHeaders);
+    }
+}
@@ -0,0 +1,477 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk space manager for temporary partitions (spilled runs, partitions and
+ * materialized results of query operators), layered over the disk space manager
+ * that stores the database itself.
+ *
+ * Temporary partitions are numbered from FIRST_TEMP_PARTITION up, and every operation
+ * on a partition below that number is passed through to the underlying disk space
+ * manager. Pages of temporary partitions are kept in memory, up to a budget of
+ * memoryPages pages (across all temporary partitions); pages allocated past the budget
+ * are stored in an unlogged scratch file, which is never forced to disk and is deleted
+ * when the temp space manager is closed. Nothing about temporary partitions is ever
+ * logged, and none of them survive a restart.
+ *
+ * The buffer manager does not log writes to pages of temporary partitions (see
+ * isTempPartition), so temporary data never generates log records.
+ */
+public class TempSpaceManager implements DiskSpaceManager {
+    // Partition number of the first temporary partition. Partition numbers are limited
+    // by the virtual page number format to under 922,337,203.
+    public static final int FIRST_TEMP_PARTITION = 900000000;
+
+    // Default budget of in-memory temporary pages (4M worth of pages).
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    // Underlying disk space manager, for all non-temporary partitions.
+    private DiskSpaceManager diskSpaceManager;
+
+    // Temporary partitions.
+    private Map<Integer, TempPartition> tempParts;
+
+    // Counter to generate new temporary partition numbers.
+    private AtomicInteger tempPartCounter;
+
+    // Maximum number of temporary pages to keep in memory.
+    private int memoryPages;
+
+    // The following are all guarded by this object's monitor:
+    // Number of temporary pages currently kept in memory.
+    private int numMemoryPages;
+    // Scratch file for temporary pages past the memory budget (created when first needed).
+    private File scratchFile;
+    private FileChannel scratchChannel;
+    // Number of page-sized slots in the scratch file, and the slots not in use.
+    private int numSlots;
+    private Deque<Integer> freeSlots;
+
+    /**
+     * A temporary partition. Each page is either in memory (memPages) or in a slot of the
+     * scratch file (spilledPages). Guarded by its own monitor.
+     */
+    private static class TempPartition {
+        private Map<Integer, byte[]> memPages = new HashMap<>();
+        private Map<Integer, Integer> spilledPages = new HashMap<>();
+        private int nextPageNum = 0;
+        private boolean freed = false;
+
+        private boolean allocated(int pageNum) {
+            return memPages.containsKey(pageNum) || spilledPages.containsKey(pageNum);
+        }
+    }
+
+    /**
+     * Creates a temp space manager over a disk space manager, with the default
+     * memory budget.
+     *
+     * @param diskSpaceManager disk space manager for non-temporary partitions
+     */
+    public TempSpaceManager(DiskSpaceManager diskSpaceManager) {
+        this(diskSpaceManager, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a temp space manager over a disk space manager.
+     *
+     * @param diskSpaceManager disk space manager for non-temporary partitions
+     * @param memoryPages maximum number of temporary pages to keep in memory
+     */
+    public TempSpaceManager(DiskSpaceManager diskSpaceManager, int memoryPages) {
+        if (memoryPages < 0) {
+            throw new IllegalArgumentException("memoryPages must be non-negative");
+        }
+        this.diskSpaceManager = diskSpaceManager;
+        this.tempParts = new ConcurrentHashMap<>();
+        this.tempPartCounter = new AtomicInteger(FIRST_TEMP_PARTITION);
+        this.memoryPages = memoryPages;
+        this.numMemoryPages = 0;
+        this.numSlots = 0;
+        this.freeSlots = new ArrayDeque<>();
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether partNum is the number of a temporary partition
+     */
+    public static boolean isTempPartition(int partNum) {
+        return partNum >= FIRST_TEMP_PARTITION;
+    }
+
+    /**
+     * Allocates a new temporary partition.
+     *
+     * @return partition number of new partition
+     */
+    public int allocTempPart() {
+        int partNum = this.tempPartCounter.getAndIncrement();
+        if (partNum < FIRST_TEMP_PARTITION) {
+            throw new PageException("out of temporary partition numbers");
+        }
+        this.tempParts.put(partNum, new TempPartition());
+        return partNum;
+    }
+
+    @Override
+    public void close() {
+        for (int partNum : this.tempParts.keySet()) {
+            this.freePart(partNum);
+        }
+        synchronized (this) {
+            if (this.scratchChannel != null) {
+                try {
+                    this.scratchChannel.close();
+                } catch (IOException e) {
+                    throw new PageException("could not close scratch file: " + e.getMessage());
+                }
+                this.scratchFile.delete();
+                this.scratchChannel = null;
+                this.scratchFile = null;
+            }
+        }
+        this.diskSpaceManager.close();
+    }
+
+    @Override
+    public int allocPart() {
+        return this.diskSpaceManager.allocPart();
+    }
+
+    @Override
+    public int allocPart(int partNum) {
+        if (isTempPartition(partNum)) {
+            throw new IllegalArgumentException("cannot allocate temporary partition " + partNum + " by number");
+        }
+        return this.diskSpaceManager.allocPart(partNum);
+    }
+
+    @Override
+    public int allocPart(int partNum, int tablespace, boolean compressed) {
+        if (isTempPartition(partNum)) {
+            throw new IllegalArgumentException("cannot allocate temporary partition " + partNum + " by number");
+        }
+        return this.diskSpaceManager.allocPart(partNum, tablespace, compressed);
+    }
+
+    @Override
+    public int allocPartInTablespace(int tablespace) {
+        return this.diskSpaceManager.allocPartInTablespace(tablespace);
+    }
+
+    @Override
+    public int allocCompressedPart() {
+        return this.diskSpaceManager.allocCompressedPart();
+    }
+
+    @Override
+    public int getNumTablespaces() {
+        return this.diskSpaceManager.getNumTablespaces();
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        if (!isTempPartition(partNum)) {
+            this.diskSpaceManager.freePart(partNum);
+            return;
+        }
+        TempPartition tp = this.tempParts.remove(partNum);
+        if (tp == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        synchronized (tp) {
+            tp.freed = true;
+            synchronized (this) {
+                this.numMemoryPages -= tp.memPages.size();
+                this.freeSlots.addAll(tp.spilledPages.values());
+            }
+            tp.memPages.clear();
+            tp.spilledPages.clear();
+        }
+    }
+
+    @Override
+    public long allocPage(int partNum) {
+        if (!isTempPartition(partNum)) {
+            return this.diskSpaceManager.allocPage(partNum);
+        }
+        TempPartition tp = this.getTempPart(partNum);
+        synchronized (tp) {
+            this.checkNotFreed(tp, partNum);
+            while (tp.allocated(tp.nextPageNum)) {
+                ++tp.nextPageNum;
+            }
+            int pageNum = tp.nextPageNum++;
+            this.allocTempPage(tp, pageNum);
+            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        }
+    }
+
+    @Override
+    public long allocPage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!isTempPartition(partNum)) {
+            return this.diskSpaceManager.allocPage(page);
+        }
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        TempPartition tp = this.getTempPart(partNum);
+        synchronized (tp) {
+            this.checkNotFreed(tp, partNum);
+            if (pageNum < 0 || tp.allocated(pageNum)) {
+                throw new IllegalStateException("page " + page + " already allocated");
+            }
+            this.allocTempPage(tp, pageNum);
+            return page;
+        }
+    }
+
+    @Override
+    public void freePage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!isTempPartition(partNum)) {
+            this.diskSpaceManager.freePage(page);
+            return;
+        }
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        TempPartition tp = this.getTempPart(partNum);
+        synchronized (tp) {
+            this.checkNotFreed(tp, partNum);
+            if (tp.memPages.remove(pageNum) != null) {
+                synchronized (this) {
+                    --this.numMemoryPages;
+                }
+                return;
+            }
+            Integer slot = tp.spilledPages.remove(pageNum);
+            if (slot == null) {
+                throw new NoSuchElementException("cannot free unallocated page");
+            }
+            synchronized (this) {
+                this.freeSlots.add(slot);
+            }
+        }
+    }
+
+    @Override
+    public void readPage(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!isTempPartition(partNum)) {
+            this.diskSpaceManager.readPage(page, buf);
+            return;
+        }
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        TempPartition tp = this.getTempPart(partNum);
+        synchronized (tp) {
+            this.checkNotFreed(tp, partNum);
+            byte[] contents = tp.memPages.get(pageNum);
+            if (contents != null) {
+                System.arraycopy(contents, 0, buf, 0, PAGE_SIZE);
+                return;
+            }
+            Integer slot = tp.spilledPages.get(pageNum);
+            if (slot == null) {
+                throw new PageException("page " + page + " is not allocated");
+            }
+            this.readSlot(slot, buf);
+        }
+    }
+
+    @Override
+    public void writePage(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!isTempPartition(partNum)) {
+            this.diskSpaceManager.writePage(page, buf);
+            return;
+        }
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        TempPartition tp = this.getTempPart(partNum);
+        synchronized (tp) {
+            this.checkNotFreed(tp, partNum);
+            byte[] contents = tp.memPages.get(pageNum);
+            if (contents != null) {
+                System.arraycopy(buf, 0, contents, 0, PAGE_SIZE);
+                return;
+            }
+            Integer slot = tp.spilledPages.get(pageNum);
+            if (slot == null) {
+                throw new PageException("page " + page + " is not allocated");
+            }
+            this.writeSlot(slot, buf);
+        }
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (isTempPartition(DiskSpaceManager.getPartNum(page))) {
+            DiskSpaceManager.super.readPage(page, buf);
+        } else {
+            this.diskSpaceManager.readPage(page, buf);
+        }
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (isTempPartition(DiskSpaceManager.getPartNum(page))) {
+            DiskSpaceManager.super.writePage(page, buf);
+        } else {
+            this.diskSpaceManager.writePage(page, buf);
+        }
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        if (isTempPartition(DiskSpaceManager.getPartNum(firstPage))) {
+            DiskSpaceManager.super.readPages(firstPage, count, bufs);
+        } else {
+            this.diskSpaceManager.readPages(firstPage, count, bufs);
+        }
+    }
+
+    @Override
+    public void writePages(long firstPage, int count, byte[][] bufs) {
+        if (isTempPartition(DiskSpaceManager.getPartNum(firstPage))) {
+            DiskSpaceManager.super.writePages(firstPage, count, bufs);
+        } else {
+            this.diskSpaceManager.writePages(firstPage, count, bufs);
+        }
+    }
+
+    @Override
+    public void writePages(long firstPage, int count, ByteBuffer[] bufs) {
+        if (isTempPartition(DiskSpaceManager.getPartNum(firstPage))) {
+            DiskSpaceManager.super.writePages(firstPage, count, bufs);
+        } else {
+            this.diskSpaceManager.writePages(firstPage, count, bufs);
+        }
+    }
+
+    @Override
+    public void sync() {
+        // temporary pages never need to be durable
+        this.diskSpaceManager.sync();
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        if (!isTempPartition(partNum)) {
+            return this.diskSpaceManager.pageAllocated(page);
+        }
+        TempPartition tp = this.getTempPart(partNum);
+        synchronized (tp) {
+            return !tp.freed && tp.allocated(DiskSpaceManager.getPageNum(page));
+        }
+    }
+
+    /**
+     * @return number of temporary pages currently kept in memory
+     */
+    public synchronized int getNumMemoryPages() {
+        return this.numMemoryPages;
+    }
+
+    /**
+     * @return number of temporary pages currently stored in the scratch file
+     */
+    public synchronized int getNumSpilledPages() {
+        return this.numSlots - this.freeSlots.size();
+    }
+
+    /**
+     * Allocates a zeroed page in a temporary partition, in memory if the budget allows,
+     * and in the scratch file otherwise. Assumes that tp's monitor is held.
+     */
+    private void allocTempPage(TempPartition tp, int pageNum) {
+        Integer slot = null;
+        synchronized (this) {
+            if (this.numMemoryPages < this.memoryPages) {
+                ++this.numMemoryPages;
+            } else if (!this.freeSlots.isEmpty()) {
+                slot = this.freeSlots.poll();
+            } else {
+                slot = this.numSlots++;
+            }
+        }
+        if (slot == null) {
+            tp.memPages.put(pageNum, new byte[PAGE_SIZE]);
+        } else {
+            tp.spilledPages.put(pageNum, slot);
+            this.writeSlot(slot, new byte[PAGE_SIZE]);
+        }
+    }
+
+    private void readSlot(int slot, byte[] buf) {
+        try {
+            ByteBuffer b = ByteBuffer.wrap(buf);
+            long offset = (long) slot * PAGE_SIZE;
+            FileChannel channel = this.getScratchChannel();
+            while (b.hasRemaining()) {
+                if (channel.read(b, offset + b.position()) < 0) {
+                    throw new PageException("unexpected end of scratch file");
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read scratch file: " + e.getMessage());
+        }
+    }
+
+    private void writeSlot(int slot, byte[] buf) {
+        try {
+            ByteBuffer b = ByteBuffer.wrap(buf);
+            long offset = (long) slot * PAGE_SIZE;
+            FileChannel channel = this.getScratchChannel();
+            while (b.hasRemaining()) {
+                channel.write(b, offset + b.position());
+            }
+        } catch (IOException e) {
+            throw new PageException("could not write scratch file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the channel of the scratch file, creating the file if necessary. The file
+     * is created in the system temporary directory, so that a crash cannot leave it
+     * behind in the database directory.
+     */
+    private synchronized FileChannel getScratchChannel() throws IOException {
+        if (this.scratchChannel == null) {
+            this.scratchFile = File.createTempFile("cs186-temp", ".scratch");
+            this.scratchFile.deleteOnExit();
+            this.scratchChannel = new RandomAccessFile(this.scratchFile, "rw").getChannel();
+        }
+        return this.scratchChannel;
+    }
+
+    private TempPartition getTempPart(int partNum) {
+        TempPartition tp = this.tempParts.get(partNum);
+        if (tp == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return tp;
+    }
+
+    private void checkNotFreed(TempPartition tp, int partNum) {
+        if (tp.freed) {
+            // freed after we looked it up
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy (Megiddo and
+ * Modha), which balances between recency and frequency.
+ *
+ * Loaded pages are split into pages referenced once since being loaded (T1) and pages
+ * referenced more than once (T2), each kept in LRU order. The page numbers of pages
+ * recently evicted from each (B1 and B2) are remembered: loading a page remembered in B1
+ * means T1 was too small, and loading a page remembered in B2 means T2 was too small, and
+ * the target size of T1 is adjusted accordingly. Pages referenced only once (such as pages
+ * read by a sequential scan) never leave T1, so a scan cannot flush out T2.
+ *
+ * Consecutive hits on the same frame by the same thread are correlated (e.g. reading many
+ * records from one page), and count as a single reference; hits from other threads in
+ * between do not break up the run.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    private static final Object T1 = "T1";
+    private static final Object T2 = "T2";
+
+    // Loaded pages referenced once, least recently used first
+    private LinkedHashSet<BufferFrame> t1;
+    // Loaded pages referenced more than once, least recently used first
+    private LinkedHashSet<BufferFrame> t2;
+    // Page numbers of pages evicted from T1, least recently used first
+    private LinkedHashSet<Long> b1;
+    // Page numbers of pages evicted from T2, least recently used first
+    private LinkedHashSet<Long> b2;
+    // Target size of T1
+    private int target;
+    // Frame referenced most recently, by each thread
+    private final ThreadLocal<BufferFrame> lastReferenced = new ThreadLocal<>();
+    // Number of frames in the buffer (0 until the first eviction)
+    private int numFrames;
+
+    public ARCEvictionPolicy() {
+        this.t1 = new LinkedHashSet<>();
+        this.t2 = new LinkedHashSet<>();
+        this.b1 = new LinkedHashSet<>();
+        this.b2 = new LinkedHashSet<>();
+        this.target = 0;
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        long pageNum = frame.getPageNum();
+        if (this.b1.remove(pageNum)) {
+            this.target = Math.min(this.numFrames, this.target + Math.max(this.b2.size() / (this.b1.size() + 1), 1));
+            frame.tag = T2;
+            this.t2.add(frame);
+        } else if (this.b2.remove(pageNum)) {
+            this.target = Math.max(0, this.target - Math.max(this.b1.size() / (this.b2.size() + 1), 1));
+            frame.tag = T2;
+            this.t2.add(frame);
+        } else {
+            frame.tag = T1;
+            this.t1.add(frame);
+        }
+        this.lastReferenced.set(frame);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame == this.lastReferenced.get()) {
+            return;
+        }
+        if (frame.tag == T1) {
+            this.t1.remove(frame);
+        } else if (frame.tag == T2) {
+            this.t2.remove(frame);
+        } else {
+            return;
+        }
+        frame.tag = T2;
+        this.t2.add(frame);
+        this.lastReferenced.set(frame);
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        BufferFrame evicted;
+        if (!this.t1.isEmpty() && this.t1.size() > this.target) {
+            evicted = firstUnpinned(this.t1, this.t2);
+        } else {
+            evicted = firstUnpinned(this.t2, this.t1);
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag == T1) {
+            this.t1.remove(frame);
+            if (this.numFrames > 0) {
+                this.b1.add(frame.getPageNum());
+            }
+        } else if (frame.tag == T2) {
+            this.t2.remove(frame);
+            if (this.numFrames > 0) {
+                this.b2.add(frame.getPageNum());
+            }
+        }
+        // |T1| + |B1| <= c, and |T1| + |T2| + |B1| + |B2| <= 2c
+        trim(this.b1, this.numFrames - this.t1.size());
+        trim(this.b2, 2 * this.numFrames - this.t1.size() - this.t2.size() - this.b1.size());
+        if (frame == this.lastReferenced.get()) {
+            this.lastReferenced.remove();
+        }
+        frame.tag = null;
+    }
+
+    /**
+     * Lists frames in the order the policy expects to evict them.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return frames, from the frame expected to be evicted soonest to the frame
+     *         expected to be evicted last
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>();
+        if (this.t1.size() > this.target) {
+            order.addAll(this.t1);
+            order.addAll(this.t2);
+        } else {
+            order.addAll(this.t2);
+            order.addAll(this.t1);
+        }
+        return order;
+    }
+
+    /**
+     * Creates a new eviction policy of the same kind, with no frames, for use by another
+     * buffer pool instance.
+     * @return new eviction policy
+     */
+    @Override
+    public EvictionPolicy newInstance() {
+        return new ARCEvictionPolicy();
+    }
+
+    private static BufferFrame firstUnpinned(LinkedHashSet<BufferFrame> first,
+                                             LinkedHashSet<BufferFrame> second) {
+        for (BufferFrame frame : first) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        for (BufferFrame frame : second) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static void trim(LinkedHashSet<Long> pageNums, int maxSize) {
+        Iterator<Long> iter = pageNums.iterator();
+        while (pageNums.size() > Math.max(0, maxSize)) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
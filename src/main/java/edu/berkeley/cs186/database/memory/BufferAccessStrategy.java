@@ -0,0 +1,64 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Access strategy for bulk operations (large sequential scans, writing temporary tables)
+ * that load many pages which are unlikely to be used again soon.
+ *
+ * Pages loaded through a strategy are remembered in a small ring of frames. Once the
+ * buffer has no free frames, a page loaded through the strategy replaces the page loaded
+ * through the strategy a full ring earlier, if that page is still loaded in the same
+ * frame and not pinned, instead of a page chosen by the eviction policy. A bulk operation
+ * therefore mostly recycles its own frames, and does not flush the rest of the buffer.
+ *
+ * A strategy is meant to be used by one operation (e.g. one scan) at a time.
+ */
+public class BufferAccessStrategy {
+    // Default number of frames in the ring
+    public static final int DEFAULT_RING_SIZE = 32;
+
+    // Frames most recently loaded through this strategy
+    private final BufferManager.Frame[] ring;
+
+    // Slot of the ring to be reused next
+    private int next;
+
+    public BufferAccessStrategy() {
+        this(DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param ringSize number of frames in the ring
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("ring size must be positive");
+        }
+        this.ring = new BufferManager.Frame[ringSize];
+        this.next = 0;
+    }
+
+    /**
+     * @return number of frames in the ring
+     */
+    public int getRingSize() {
+        return this.ring.length;
+    }
+
+    /**
+     * @return frame in the slot of the ring to be reused next (may be null, or no longer
+     * hold the page loaded through the strategy)
+     */
+    BufferManager.Frame nextVictim() {
+        return this.ring[this.next];
+    }
+
+    /**
+     * Records a frame a page was loaded into through this strategy, in the slot of the ring
+     * to be reused next, and moves on to the next slot.
+     * @param frame frame the page was loaded into
+     */
+    void loaded(BufferManager.Frame frame) {
+        this.ring[this.next] = frame;
+        this.next = (this.next + 1) % this.ring.length;
+    }
+}
@@ -1,35 +1,77 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
+ *
+ * Frames are pinned and unpinned by atomically updating their pin count, without
+ * locking the frame. A frame that is about to be evicted is closed to pins, by
+ * atomically swapping a pin count of zero for a negative count; from then on, no one
+ * can pin the frame.
  */
 abstract class BufferFrame {
+    // Pin count of a frame closed to pins
+    private static final int CLOSED = Integer.MIN_VALUE;
+
     Object tag = null;
-    private int pinCount = 0;
+    private final AtomicInteger pinCount = new AtomicInteger(0);
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        if (!pinIfOpen()) {
+            throw new IllegalStateException("cannot pin closed frame");
+        }
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
-            throw new IllegalStateException("cannot unpin unpinned frame");
+        while (true) {
+            int count = pinCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("cannot unpin unpinned frame");
+            }
+            if (pinCount.compareAndSet(count, count - 1)) {
+                return;
+            }
         }
-        --pinCount;
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
+    }
+
+    /**
+     * Pins the buffer frame, unless it has been closed to pins.
+     * @return whether the frame was pinned
+     */
+    boolean pinIfOpen() {
+        while (true) {
+            int count = pinCount.get();
+            if (count < 0) {
+                return false;
+            }
+            if (pinCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Closes the buffer frame to pins, if it is not pinned.
+     * @return whether the frame was closed (or already closed)
+     */
+    boolean closeIfUnpinned() {
+        return pinCount.compareAndSet(0, CLOSED) || pinCount.get() == CLOSED;
     }
 
     /**
@@ -55,6 +97,50 @@ abstract class BufferFrame {
      */
     abstract void readBytes(short position, short num, byte[] buf);
 
+    /**
+     * Reads a byte from the buffer frame.
+     * @param position position in buffer frame to read from
+     * @return byte at position
+     */
+    byte getByte(short position) {
+        byte[] buf = new byte[1];
+        readBytes(position, (short) 1, buf);
+        return buf[0];
+    }
+
+    /**
+     * Reads a short from the buffer frame.
+     * @param position position in buffer frame to start reading
+     * @return short at position
+     */
+    short getShort(short position) {
+        byte[] buf = new byte[Short.BYTES];
+        readBytes(position, (short) buf.length, buf);
+        return ByteBuffer.wrap(buf).getShort();
+    }
+
+    /**
+     * Reads an int from the buffer frame.
+     * @param position position in buffer frame to start reading
+     * @return int at position
+     */
+    int getInt(short position) {
+        byte[] buf = new byte[Integer.BYTES];
+        readBytes(position, (short) buf.length, buf);
+        return ByteBuffer.wrap(buf).getInt();
+    }
+
+    /**
+     * Reads a long from the buffer frame.
+     * @param position position in buffer frame to start reading
+     * @return long at position
+     */
+    long getLong(short position) {
+        byte[] buf = new byte[Long.BYTES];
+        readBytes(position, (short) buf.length, buf);
+        return ByteBuffer.wrap(buf).getLong();
+    }
+
     /**
      * Write to the buffer frame, and mark frame as dirtied.
      * @param position position in buffer frame to start writing
@@ -63,6 +149,16 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Write to the buffer frame, and mark frame as dirtied, holding the frame's latch in
+     * shared mode only. Concurrent calls must write disjoint ranges, and the frame must not
+     * be flushed until they return. The write is not logged, so this is only for log pages.
+     * @param position position in buffer frame to start writing
+     * @param num number of bytes to write
+     * @param buf input buffer
+     */
+    abstract void writeBytesShared(short position, short num, byte[] buf);
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
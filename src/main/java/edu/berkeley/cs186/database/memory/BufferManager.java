@@ -5,20 +5,38 @@ import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.io.TempSpaceManager;
 import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
+ * Data is stored in page-sized byte buffers, and returned in a Frame object specific
  * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * a new Frame object, with the same underlying buffer), with old Frame objects
+ * backed by the same buffer marked as invalid.
+ *
+ * Frame buffers are either heap byte arrays, or (in off-heap mode) slices of a few large
+ * direct buffers allocated up front. Off-heap frames are read into and written from by the
+ * disk space manager without going through intermediate arrays, and do not add to the
+ * work of the garbage collector however large the buffer is.
+ *
+ * The buffer may be split into several independent buffer pool instances, each a
+ * buffer manager of its own (with its own frames, page table, eviction policy and lock);
+ * every page is always cached by the same instance, chosen by hashing the page number.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -29,18 +47,37 @@ public class BufferManager implements AutoCloseable {
     // Effective page size available to users of buffer manager.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // Maximum size (in bytes) of a direct buffer that off-heap frames are sliced out of
+    private static final int MAX_ARENA_SIZE = 1 << 30;
+
+    // Buffer frames (replaced by a new array, while holding managerLock, when the buffer
+    // is resized; read without the lock by pinLoadedFrame)
+    private volatile Frame[] frames;
+
+    // Whether frames are slices of direct buffers, rather than byte arrays on the heap
+    private boolean offHeap;
+
+    // Buffer pool instances that pages are spread over, if the buffer is partitioned (in
+    // which case this buffer manager has no frames of its own); null otherwise
+    private BufferManager[] instances;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Map of page number to frame index (only updated while holding managerLock, but
+    // read without it)
+    private PageTable pageTable;
 
     // Lock on buffer manager
     private ReentrantLock managerLock;
 
+    // Evicted frames whose dirty pages are still being written out, by page number (only
+    // added to while holding managerLock). Since evicted pages are written out after the
+    // manager lock is released, a thread loading one of these pages must wait for the
+    // write to finish (by waiting for the frame lock, which the evicting thread holds until
+    // then) before reading the page, or it would read a stale copy.
+    private final Map<Long, Frame> pendingWrites = new ConcurrentHashMap<>();
+
     // Eviction policy
     private EvictionPolicy evictionPolicy;
 
@@ -50,25 +87,62 @@ public class BufferManager implements AutoCloseable {
     // Recovery manager
     private RecoveryManager recoveryManager;
 
-    // Count of number of I/Os
-    private long numIOs = 0;
+    // Count of number of I/Os (also incremented by the page cleaner and prefetch threads)
+    private final AtomicLong numIOs = new AtomicLong(0);
+
+    // Number of threads serving prefetch requests
+    private static final int PREFETCH_THREADS = 4;
+
+    // Threads serving prefetch requests (created on first prefetch)
+    private ExecutorService prefetchExecutor;
+
+    // Number of prefetch requests queued or in progress
+    private AtomicInteger pendingPrefetches = new AtomicInteger(0);
+
+    // Number of pages sequential scans should read ahead of the page being read
+    // (0 disables read-ahead)
+    private int readAheadPages = 0;
+
+    // Thread writing out dirty pages ahead of eviction (created by startPageCleaner)
+    private ScheduledExecutorService pageCleaner;
+
+    // Whether the page cleaner is bringing the number of dirty frames down to the low
+    // watermark (set once the high watermark is crossed)
+    private boolean cleaning = false;
+
+    // Number of pages written by the page cleaner
+    private AtomicLong numCleanerWrites = new AtomicLong(0);
+
+    // Thread loading pages into the buffer cache to warm it up (created by startWarmUp)
+    private Thread warmUpThread;
+
+    // Set to stop warming up the buffer cache
+    private volatile boolean warmUpStopped = false;
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
+     * underlying byte buffer. Free frames use the index field to create a (singly) linked
      * list between free frames.
+     *
+     * Pinning a frame does not lock it. Instead, the contents of the frame are protected
+     * by a latch, held only for the duration of each access: in shared mode while reading
+     * the contents (or writing them out to disk), and in exclusive mode while changing them,
+     * loading a page into the frame, or evicting it. Threads reading the same page
+     * therefore do not block each other.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
-        private int index;
+        ByteBuffer contents;
+        private volatile int index;
         private long pageNum;
         private boolean dirty;
-        private ReentrantLock frameLock;
+        private final ReentrantReadWriteLock latch;
         private boolean logPage;
+        // Pages of temporary partitions are never logged, and never need to be durable
+        private boolean tempPage;
 
-        Frame(byte[] contents, int nextFree) {
+        Frame(ByteBuffer contents, int nextFree) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
@@ -76,14 +150,15 @@ public class BufferManager implements AutoCloseable {
             this(frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(ByteBuffer contents, int index, long pageNum) {
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
             this.dirty = false;
-            this.frameLock = new ReentrantLock();
+            this.latch = new ReentrantReadWriteLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
             this.logPage = partNum == LogManager.LOG_PARTITION;
+            this.tempPage = TempSpaceManager.isTempPartition(partNum);
         }
 
         /**
@@ -92,22 +167,44 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
-
-            if (!this.isValid()) {
+            if (!this.tryPin(this.pageNum)) {
                 throw new IllegalStateException("pinning invalidated frame");
             }
+        }
 
-            super.pin();
+        /**
+         * Pins the buffer frame if it still holds the given page. Used when the frame was
+         * found without holding the manager lock, in which case it may have been evicted
+         * (or reused for another page) since.
+         * @param pageNum page number the frame is expected to hold
+         * @return whether the frame was pinned
+         */
+        private boolean tryPin(long pageNum) {
+            if (!this.pinIfOpen()) {
+                return false;
+            }
+            if (!this.isValid() || this.pageNum != pageNum) {
+                super.unpin();
+                return false;
+            }
+            return true;
         }
 
         /**
-         * Unpin buffer frame.
+         * Locks the frame's latch in exclusive mode, and closes the frame to pins, if the
+         * frame is valid and no one is using it. Used to evict the frame; since the manager
+         * lock is usually held, this never waits.
+         * @return whether the latch was locked and the frame closed
          */
-        @Override
-        public void unpin() {
-            super.unpin();
-            this.frameLock.unlock();
+        private boolean tryLockForEviction() {
+            if (!this.latch.writeLock().tryLock()) {
+                return false;
+            }
+            if (!this.isValid() || !this.closeIfUnpinned()) {
+                this.latch.writeLock().unlock();
+                return false;
+            }
+            return true;
         }
 
         /**
@@ -170,8 +267,7 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void flush() {
-            this.frameLock.lock();
-            super.pin();
+            this.latch.readLock().lock();
             try {
                 if (!this.isValid()) {
                     return;
@@ -179,15 +275,33 @@ public class BufferManager implements AutoCloseable {
                 if (!this.dirty) {
                     return;
                 }
-                if (!this.logPage) {
+                if (!this.logPage && !this.tempPage) {
                     recoveryManager.pageFlushHook(this.getPageLSN());
                 }
-                BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
+                BufferManager.this.diskSpaceManager.writePage(pageNum, contents.duplicate());
                 BufferManager.this.incrementIOs();
                 this.dirty = false;
             } finally {
-                super.unpin();
-                this.frameLock.unlock();
+                this.latch.readLock().unlock();
+            }
+        }
+
+        /**
+         * Flushes this buffer frame if it is valid, dirty, and not pinned.
+         * @return whether the frame was written
+         */
+        private boolean tryFlush() {
+            if (this.isPinned() || !this.latch.readLock().tryLock()) {
+                return false;
+            }
+            try {
+                if (!this.isValid() || !this.dirty) {
+                    return false;
+                }
+                this.flush();
+                return true;
+            } finally {
+                this.latch.readLock().unlock();
             }
         }
 
@@ -199,18 +313,99 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void readBytes(short position, short num, byte[] buf) {
-            this.pin();
+            this.latch.readLock().lock();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                ByteBuffer src = this.contents.duplicate();
+                src.position(position + dataOffset());
+                src.get(buf, 0, num);
+                BufferManager.this.evictionPolicy.hit(this);
+            } finally {
+                this.latch.readLock().unlock();
+            }
+        }
+
+        /**
+         * Reads a byte directly from the frame's buffer.
+         * @param position position in buffer frame to read from
+         * @return byte at position
+         */
+        @Override
+        byte getByte(short position) {
+            this.latch.readLock().lock();
+            try {
+                byte value = this.contents.get(this.readIndex(position));
+                BufferManager.this.evictionPolicy.hit(this);
+                return value;
+            } finally {
+                this.latch.readLock().unlock();
+            }
+        }
+
+        /**
+         * Reads a short directly from the frame's buffer.
+         * @param position position in buffer frame to start reading
+         * @return short at position
+         */
+        @Override
+        short getShort(short position) {
+            this.latch.readLock().lock();
+            try {
+                short value = this.contents.getShort(this.readIndex(position));
+                BufferManager.this.evictionPolicy.hit(this);
+                return value;
+            } finally {
+                this.latch.readLock().unlock();
+            }
+        }
+
+        /**
+         * Reads an int directly from the frame's buffer.
+         * @param position position in buffer frame to start reading
+         * @return int at position
+         */
+        @Override
+        int getInt(short position) {
+            this.latch.readLock().lock();
+            try {
+                int value = this.contents.getInt(this.readIndex(position));
+                BufferManager.this.evictionPolicy.hit(this);
+                return value;
+            } finally {
+                this.latch.readLock().unlock();
+            }
+        }
+
+        /**
+         * Reads a long directly from the frame's buffer.
+         * @param position position in buffer frame to start reading
+         * @return long at position
+         */
+        @Override
+        long getLong(short position) {
+            this.latch.readLock().lock();
+            try {
+                long value = this.contents.getLong(this.readIndex(position));
                 BufferManager.this.evictionPolicy.hit(this);
+                return value;
             } finally {
-                this.unpin();
+                this.latch.readLock().unlock();
             }
         }
 
+        /**
+         * @param position position in buffer frame
+         * @return index in the frame's buffer of position; the latch must be held
+         */
+        private int readIndex(short position) {
+            if (!this.isValid()) {
+                throw new IllegalStateException("reading from invalid buffer frame");
+            }
+            return position + dataOffset();
+        }
+
         /**
          * Write to the buffer frame, and mark frame as dirtied.
          * @param position position in buffer frame to start writing
@@ -219,30 +414,55 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
-            this.pin();
+            this.latch.writeLock().lock();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("writing to invalid buffer frame");
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
+                if (transaction != null && !logPage && !tempPage) {
                     List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = new byte[len];
+                        ByteBuffer src = contents.duplicate();
+                        src.position(start + offset);
+                        src.get(before);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
                         long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
                                        after);
                         this.setPageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                ByteBuffer dst = this.contents.duplicate();
+                dst.position(offset);
+                dst.put(buf, 0, num);
+                this.dirty = true;
+                BufferManager.this.evictionPolicy.hit(this);
+            } finally {
+                this.latch.writeLock().unlock();
+            }
+        }
+
+        @Override
+        void writeBytesShared(short position, short num, byte[] buf) {
+            if (!logPage) {
+                throw new IllegalStateException("only log pages can be written with a shared latch");
+            }
+            this.latch.readLock().lock();
+            try {
+                if (!this.isValid()) {
+                    throw new IllegalStateException("writing to invalid buffer frame");
+                }
+                ByteBuffer dst = this.contents.duplicate();
+                dst.position(position + dataOffset());
+                dst.put(buf, 0, num);
                 this.dirty = true;
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                this.latch.readLock().unlock();
             }
         }
 
@@ -252,19 +472,13 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
-            try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
-                if (this.isValid()) {
-                    this.pin();
-                    return this;
-                }
-                return BufferManager.this.fetchPageFrame(this.pageNum);
-            } finally {
-                this.frameLock.unlock();
+            if (this.tryPin(this.pageNum)) {
+                return this;
+            }
+            if (this.isFreed()) {
+                throw new PageException("page already freed");
             }
+            return BufferManager.this.fetchPageFrame(this.pageNum);
         }
 
         @Override
@@ -278,7 +492,12 @@ public class BufferManager implements AutoCloseable {
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            this.latch.readLock().lock();
+            try {
+                return this.contents.getLong(8);
+            } finally {
+                this.latch.readLock().unlock();
+            }
         }
 
         @Override
@@ -307,7 +526,7 @@ public class BufferManager implements AutoCloseable {
                     ranges.add(new Pair<>(startIndex, maxRange));
                     startIndex = -1;
                     skip = -1;
-                } else if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                } else if (buf[i] == contents.get(offset + i) && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -315,7 +534,7 @@ public class BufferManager implements AutoCloseable {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != contents.get(offset + i)) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -329,7 +548,12 @@ public class BufferManager implements AutoCloseable {
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.latch.writeLock().lock();
+            try {
+                this.contents.putLong(8, pageLSN);
+            } finally {
+                this.latch.writeLock().unlock();
+            }
         }
 
         private short dataOffset() {
@@ -350,35 +574,150 @@ public class BufferManager implements AutoCloseable {
      */
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
-        this.frames = new Frame[bufferSize];
-        for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicy, 1);
+    }
+
+    /**
+     * Creates a new buffer manager, with the buffer split evenly between several
+     * independent buffer pool instances. Threads working on pages cached by different
+     * instances do not contend for the same lock or eviction policy.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use (each additional instance uses a new
+     *                       instance of the policy)
+     * @param numInstances number of buffer pool instances
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, EvictionPolicy evictionPolicy, int numInstances) {
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicy, numInstances, false);
+    }
+
+    /**
+     * Creates a new buffer manager, with the buffer split evenly between several
+     * independent buffer pool instances, and frames optionally allocated off-heap.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use (each additional instance uses a new
+     *                       instance of the policy)
+     * @param numInstances number of buffer pool instances
+     * @param offHeap whether to allocate frames as slices of direct buffers, rather than
+     *                as byte arrays on the heap
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, EvictionPolicy evictionPolicy, int numInstances,
+                         boolean offHeap) {
+        if (numInstances < 1 || (numInstances > 1 && numInstances > bufferSize)) {
+            throw new IllegalArgumentException("cannot split buffer of " + bufferSize + " pages into " +
+                                               numInstances + " instances");
         }
-        this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
         this.managerLock = new ReentrantLock();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
+        this.firstFreeIndex = 0;
+        this.offHeap = offHeap;
+        if (numInstances > 1) {
+            this.frames = new Frame[0];
+            this.pageTable = new PageTable(0);
+            this.instances = new BufferManager[numInstances];
+            for (int i = 0; i < numInstances; ++i) {
+                int instanceSize = bufferSize / numInstances + (i < bufferSize % numInstances ? 1 : 0);
+                this.instances[i] = new BufferManager(diskSpaceManager, recoveryManager, instanceSize,
+                                                      i == 0 ? evictionPolicy : evictionPolicy.newInstance(),
+                                                      1, offHeap);
+            }
+            return;
+        }
+        this.frames = new Frame[bufferSize];
+        ByteBuffer[] buffers = allocateFrameBuffers(bufferSize, offHeap);
+        for (int i = 0; i < bufferSize; ++i) {
+            this.frames[i] = new Frame(buffers[i], i + 1);
+        }
+        this.pageTable = new PageTable(bufferSize);
+    }
+
+    /**
+     * Allocates page-sized buffers for frames. Off-heap buffers are sliced out of direct
+     * buffers of up to MAX_ARENA_SIZE bytes each, rather than allocated one at a time, since
+     * every direct buffer allocation has a fixed overhead (and is only freed by the garbage
+     * collector).
+     *
+     * @param numFrames number of buffers
+     * @param offHeap whether to allocate direct buffers
+     * @return buffers, each with position 0 and limit (and capacity) PAGE_SIZE
+     */
+    private static ByteBuffer[] allocateFrameBuffers(int numFrames, boolean offHeap) {
+        ByteBuffer[] buffers = new ByteBuffer[numFrames];
+        if (!offHeap) {
+            for (int i = 0; i < numFrames; ++i) {
+                buffers[i] = ByteBuffer.wrap(new byte[DiskSpaceManager.PAGE_SIZE]);
+            }
+            return buffers;
+        }
+        int framesPerArena = MAX_ARENA_SIZE / DiskSpaceManager.PAGE_SIZE;
+        for (int first = 0; first < numFrames; first += framesPerArena) {
+            int count = Math.min(framesPerArena, numFrames - first);
+            ByteBuffer arena = ByteBuffer.allocateDirect(count * DiskSpaceManager.PAGE_SIZE);
+            for (int i = 0; i < count; ++i) {
+                arena.limit((i + 1) * DiskSpaceManager.PAGE_SIZE);
+                arena.position(i * DiskSpaceManager.PAGE_SIZE);
+                buffers[first + i] = arena.slice();
+            }
+        }
+        return buffers;
+    }
+
+    /**
+     * @return whether frames are allocated off-heap
+     */
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    /**
+     * @return number of buffer pool instances the buffer is split into
+     */
+    public int getNumInstances() {
+        return this.instances == null ? 1 : this.instances.length;
+    }
+
+    /**
+     * @param pageNum page number
+     * @return buffer pool instance that caches the page
+     */
+    private BufferManager instanceFor(long pageNum) {
+        long h = pageNum * 0x9E3779B97F4A7C15L;
+        return this.instances[(int) ((h >>> 32) % this.instances.length)];
     }
 
     @Override
     public void close() {
+        this.stopWarmUp();
+        this.stopPageCleaner();
+        if (this.instances != null) {
+            for (BufferManager instance : this.instances) {
+                instance.close();
+            }
+            return;
+        }
+        this.stopPrefetching();
         this.managerLock.lock();
         try {
             for (Frame frame : this.frames) {
-                frame.frameLock.lock();
+                frame.latch.writeLock().lock();
                 try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
                     if (!frame.isValid()) {
                         continue;
                     }
+                    if (!frame.closeIfUnpinned()) {
+                        throw new IllegalStateException("closing buffer manager but frame still pinned");
+                    }
                     evictionPolicy.cleanup(frame);
                     frame.invalidate();
                 } finally {
-                    frame.frameLock.unlock();
+                    frame.latch.writeLock().unlock();
                 }
             }
         } finally {
@@ -391,62 +730,149 @@ public class BufferManager implements AutoCloseable {
      * buffer frame if page already loaded in memory. Pins the buffer frame.
      * Cannot be used outside the package.
      *
+     * Pages that are already loaded are found and pinned without taking the manager
+     * lock, so that concurrent hits on different pages do not contend with each other.
+     *
      * @param pageNum page number
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
+        return this.fetchPageFrame(pageNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, loading it (if not already
+     * loaded) through an access strategy. Pins the buffer frame.
+     *
+     * @param pageNum page number
+     * @param strategy access strategy, or null to choose frames with the eviction policy
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum, BufferAccessStrategy strategy) {
+        if (this.instances != null) {
+            return this.instanceFor(pageNum).fetchPageFrame(pageNum, strategy);
+        }
         Frame newFrame;
         Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
-            }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
+        Frame pendingWrite;
+        while (true) {
+            newFrame = this.pinLoadedFrame(pageNum);
+            if (newFrame != null) {
                 return newFrame;
             }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
-            }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
+            this.managerLock.lock();
+            // figure out what frame to load data to, and update manager state
+            try {
+                if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+                    throw new PageException("page " + pageNum + " not allocated");
+                }
+                if (this.pageTable.get(pageNum) >= 0) {
+                    // loaded by another thread in the meantime
+                    continue;
+                }
+                // prioritize free frames over eviction
+                if (this.firstFreeIndex < this.frames.length) {
+                    evictedFrame = this.frames[this.firstFreeIndex];
+                    evictedFrame.latch.writeLock().lock();
+                    evictedFrame.setUsed();
+                } else if ((evictedFrame = this.lockRingVictim(strategy)) != null) {
+                    this.pageTable.remove(evictedFrame.pageNum, evictedFrame.index);
+                    evictionPolicy.cleanup(evictedFrame);
+                } else {
+                    evictedFrame = (Frame) evictionPolicy.evict(frames);
+                    // another thread may be using the frame (and may need the manager lock
+                    // before it is done with it), so we must not wait for its latch while
+                    // holding the manager lock
+                    if (!evictedFrame.tryLockForEviction()) {
+                        continue;
+                    }
+                    this.pageTable.remove(evictedFrame.pageNum, evictedFrame.index);
+                    evictionPolicy.cleanup(evictedFrame);
+                }
+                if (evictedFrame.isValid() && evictedFrame.dirty) {
+                    this.pendingWrites.put(evictedFrame.pageNum, evictedFrame);
+                }
+                pendingWrite = this.pendingWrites.get(pageNum);
+                int frameIndex = evictedFrame.index;
+                newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
+                evictionPolicy.init(newFrame);
+                if (strategy != null) {
+                    strategy.loaded(newFrame);
+                }
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+                newFrame.latch.writeLock().lock();
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
+                this.pageTable.put(pageNum, frameIndex);
+                break;
+            } finally {
+                this.managerLock.unlock();
+            }
         }
         // flush evicted frame
         try {
             evictedFrame.invalidate();
         } finally {
-            evictedFrame.frameLock.unlock();
+            this.pendingWrites.remove(evictedFrame.pageNum, evictedFrame);
+            evictedFrame.latch.writeLock().unlock();
         }
         // read new page into frame
         try {
+            if (pendingWrite != null) {
+                // wait for the page to be written out by the thread that evicted it
+                pendingWrite.latch.readLock().lock();
+                pendingWrite.latch.readLock().unlock();
+            }
             newFrame.pageNum = pageNum;
             newFrame.pin();
-            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
+            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents.duplicate());
             this.incrementIOs();
             return newFrame;
         } catch (PageException e) {
             newFrame.unpin();
             throw e;
         } finally {
-            newFrame.frameLock.unlock();
+            newFrame.latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the frame an access strategy would like to reuse, and locks it, if it can be
+     * reused: it must still be one of this buffer manager's current frames, and not be
+     * pinned. The manager lock must be held.
+     *
+     * @param strategy access strategy (may be null)
+     * @return locked frame to reuse, or null if there is none
+     */
+    private Frame lockRingVictim(BufferAccessStrategy strategy) {
+        if (strategy == null) {
+            return null;
+        }
+        Frame frame = strategy.nextVictim();
+        if (frame == null || !frame.isValid() || frame.index >= this.frames.length ||
+                this.frames[frame.index] != frame) {
+            return null;
+        }
+        return frame.tryLockForEviction() ? frame : null;
+    }
+
+    /**
+     * Finds and pins the frame of a loaded page, without taking the manager lock.
+     *
+     * @param pageNum page number
+     * @return pinned buffer frame of the page, or null if the page was not found loaded
+     */
+    private Frame pinLoadedFrame(long pageNum) {
+        int frameIndex = this.pageTable.get(pageNum);
+        if (frameIndex < 0) {
+            return null;
+        }
+        Frame[] frames = this.frames;
+        if (frameIndex >= frames.length) {
+            // the buffer shrank in the meantime
+            return null;
         }
+        Frame frame = frames[frameIndex];
+        return frame.tryPin(pageNum) ? frame : null;
     }
 
     /**
@@ -461,19 +887,456 @@ public class BufferManager implements AutoCloseable {
     }
 
     /**
-     * Fetches a buffer frame for a new page. Pins the buffer frame. Cannot be used outside the package.
+     * Fetches the specified page, with a loaded and pinned buffer frame. If the page is
+     * not loaded, it is loaded through the given access strategy.
      *
-     * @param partNum partition number for new page
-     * @return buffer frame for the new page
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param strategy      access strategy, or null for normal replacement
+     * @return specified page
      */
-    Frame fetchNewPageFrame(int partNum) {
-        long pageNum = this.diskSpaceManager.allocPage(partNum);
+    public Page fetchPage(LockContext parentContext, long pageNum, BufferAccessStrategy strategy) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, strategy));
+    }
+
+    /**
+     * Asynchronously loads the specified pages into the buffer cache, without pinning
+     * them, so that a later fetchPage call does not have to wait for a read. Pages that
+     * are already loaded are skipped. Prefetching is best-effort: requests are dropped
+     * if too many are already outstanding (at most a quarter of the buffer cache may be
+     * waiting to be prefetched), and pages that cannot be loaded are ignored.
+     *
+     * @param pageNums page numbers of pages to load
+     */
+    public void prefetch(long[] pageNums) {
+        if (this.instances != null) {
+            for (long pageNum : pageNums) {
+                this.instanceFor(pageNum).prefetch(new long[] {pageNum});
+            }
+            return;
+        }
+        int maxPendingPrefetches = this.frames.length / 4;
+        for (long pageNum : pageNums) {
+            if (this.pageTable.get(pageNum) >= 0) {
+                continue;
+            }
+            this.managerLock.lock();
+            try {
+                if (this.pendingPrefetches.get() >= maxPendingPrefetches) {
+                    return;
+                }
+                if (this.prefetchExecutor == null) {
+                    this.prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREADS, (Runnable r) -> {
+                        Thread t = new Thread(r, "buffer-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+                this.pendingPrefetches.incrementAndGet();
+                this.prefetchExecutor.execute(() -> {
+                    try {
+                        this.fetchPageFrame(pageNum).unpin();
+                    } catch (PageException | IllegalStateException | NoSuchElementException e) {
+                        // page was freed, or everything is pinned - the page will be
+                        // read when it is actually needed
+                    } finally {
+                        this.pendingPrefetches.decrementAndGet();
+                    }
+                });
+            } finally {
+                this.managerLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return number of pages sequential scans should read ahead (0 if read-ahead is disabled)
+     */
+    public int getReadAheadPages() {
+        return this.readAheadPages;
+    }
+
+    /**
+     * Sets how many pages sequential scans over heap files should prefetch ahead of the
+     * page currently being read. Read-ahead is disabled (0) by default.
+     *
+     * @param readAheadPages number of pages to read ahead, or 0 to disable read-ahead
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        if (readAheadPages < 0) {
+            throw new IllegalArgumentException("cannot read ahead a negative number of pages");
+        }
+        this.readAheadPages = readAheadPages;
+    }
+
+    /**
+     * Lists the pages loaded in the buffer cache (except pages of temporary partitions, and
+     * of the log partition, which is only read to recover from a crash), from the page the eviction policy expects to keep longest to the page it expects to
+     * evict soonest. Used to save the contents of the buffer cache before shutting down, so
+     * that it can be warmed up with the same pages (see startWarmUp) after a restart.
+     *
+     * @return page numbers of loaded pages, hottest first
+     */
+    public List<Long> getResidentPages() {
+        if (this.instances != null) {
+            // pages of different instances are not ranked against each other; interleave them
+            List<List<Long>> instancePages = new ArrayList<>();
+            for (BufferManager instance : this.instances) {
+                instancePages.add(instance.getResidentPages());
+            }
+            List<Long> pageNums = new ArrayList<>();
+            for (int i = 0; pageNums.size() < this.getBufferSize(); ++i) {
+                boolean found = false;
+                for (List<Long> pages : instancePages) {
+                    if (i < pages.size()) {
+                        pageNums.add(pages.get(i));
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    break;
+                }
+            }
+            return pageNums;
+        }
+        List<Long> pageNums = new ArrayList<>();
+        this.managerLock.lock();
+        try {
+            for (BufferFrame frame : this.evictionPolicy.evictionOrder(this.frames)) {
+                Frame f = (Frame) frame;
+                if (f.isValid() && !f.tempPage && !f.logPage && this.frames[f.index] == f) {
+                    pageNums.add(f.pageNum);
+                }
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+        Collections.reverse(pageNums);
+        return pageNums;
+    }
+
+    /**
+     * Starts loading pages into the buffer cache in the background, e.g. the pages listed
+     * by getResidentPages before a restart, so that they do not have to be read one at a
+     * time by the first requests that need them. If there are more pages than fit, the
+     * pages listed first are loaded. Pages are read in order of page number, so that the
+     * pages of each partition are read sequentially.
+     *
+     * Warming up only fills free frames: pages that would have to be loaded into an
+     * instance with no free frames left (e.g. because it is already full of pages loaded
+     * by normal requests) are skipped. Pages that are already loaded, or no longer
+     * allocated, are skipped too. Any warm up already in progress is stopped first.
+     *
+     * @param pageNums page numbers of pages to load, most important first
+     */
+    public void startWarmUp(List<Long> pageNums) {
+        this.stopWarmUp();
+        // pick the pages that fit, counting how many pages each instance can take
+        BufferManager[] instances = this.instances == null ? new BufferManager[] {this} : this.instances;
+        Map<BufferManager, Integer> room = new HashMap<>();
+        for (BufferManager instance : instances) {
+            room.put(instance, instance.frames.length);
+        }
+        List<Long> selected = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (long pageNum : pageNums) {
+            BufferManager instance = this.instances == null ? this : this.instanceFor(pageNum);
+            int left = room.get(instance);
+            if (left > 0 && seen.add(pageNum)) {
+                room.put(instance, left - 1);
+                selected.add(pageNum);
+            }
+        }
+        Collections.sort(selected);
+
+        this.warmUpStopped = false;
+        this.warmUpThread = new Thread(() -> {
+            for (long pageNum : selected) {
+                if (this.warmUpStopped) {
+                    return;
+                }
+                BufferManager instance = this.instances == null ? this : this.instanceFor(pageNum);
+                if (instance.pageTable.get(pageNum) >= 0 || !instance.hasFreeFrame()) {
+                    continue;
+                }
+                try {
+                    instance.fetchPageFrame(pageNum).unpin();
+                } catch (PageException | IllegalStateException | NoSuchElementException e) {
+                    // page or partition was freed - nothing to warm up
+                }
+            }
+        }, "buffer-warm-up");
+        this.warmUpThread.setDaemon(true);
+        this.warmUpThread.start();
+    }
+
+    /**
+     * Waits for the pages passed to startWarmUp to finish loading.
+     */
+    public void awaitWarmUp() {
+        Thread thread = this.warmUpThread;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops warming up the buffer cache, if startWarmUp was called, and waits for the page
+     * being loaded (if any) to finish loading.
+     */
+    private void stopWarmUp() {
+        this.warmUpStopped = true;
+        this.awaitWarmUp();
+        this.warmUpThread = null;
+    }
+
+    /**
+     * @return whether there are free frames
+     */
+    private boolean hasFreeFrame() {
+        this.managerLock.lock();
+        try {
+            return this.firstFreeIndex < this.frames.length;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for outstanding prefetch requests to finish and stops the prefetch threads.
+     */
+    private void stopPrefetching() {
+        ExecutorService executor;
         this.managerLock.lock();
         try {
-            return fetchPageFrame(pageNum);
+            executor = this.prefetchExecutor;
+            this.prefetchExecutor = null;
         } finally {
             this.managerLock.unlock();
         }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts a background thread that writes out dirty, unpinned pages before they are
+     * chosen for eviction, so that a page miss rarely has to wait for the evicted page to
+     * be written first. Once more than highWatermark of the frames are dirty, the cleaner
+     * writes dirty pages, in the order the eviction policy expects to evict them, until
+     * no more than lowWatermark of the frames are dirty. At most pagesPerRound pages are
+     * written every intervalMillis milliseconds.
+     *
+     * @param intervalMillis time between rounds of the page cleaner, in milliseconds
+     * @param pagesPerRound maximum number of pages written per round
+     * @param lowWatermark fraction of frames allowed to stay dirty once cleaning starts
+     * @param highWatermark fraction of frames that must be dirty for cleaning to start
+     */
+    public void startPageCleaner(long intervalMillis, int pagesPerRound, double lowWatermark,
+                                 double highWatermark) {
+        if (intervalMillis <= 0 || pagesPerRound <= 0) {
+            throw new IllegalArgumentException("page cleaner interval and rate must be positive");
+        }
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("invalid page cleaner watermarks " + lowWatermark + ", " +
+                                               highWatermark);
+        }
+        this.managerLock.lock();
+        try {
+            if (this.pageCleaner != null) {
+                throw new IllegalStateException("page cleaner already running");
+            }
+            this.pageCleaner = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+                Thread t = new Thread(r, "buffer-page-cleaner");
+                t.setDaemon(true);
+                return t;
+            });
+            this.pageCleaner.scheduleWithFixedDelay(() -> {
+                try {
+                    this.cleanPages(pagesPerRound, lowWatermark, highWatermark);
+                } catch (RuntimeException e) {
+                    // e.g. a page was freed while being written - pages that are still dirty
+                    // are retried next round (an exception escaping the task would cancel it)
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the page cleaner, if running, waiting for the current round to finish.
+     */
+    public void stopPageCleaner() {
+        ScheduledExecutorService executor;
+        this.managerLock.lock();
+        try {
+            executor = this.pageCleaner;
+            this.pageCleaner = null;
+        } finally {
+            this.managerLock.unlock();
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs one round of the page cleaner.
+     *
+     * @param maxPages maximum number of pages to write
+     * @param lowWatermark fraction of frames allowed to stay dirty once cleaning starts
+     * @param highWatermark fraction of frames that must be dirty for cleaning to start
+     * @return number of pages written
+     */
+    int cleanPages(int maxPages, double lowWatermark, double highWatermark) {
+        if (this.instances != null) {
+            int maxInstancePages = (maxPages + this.instances.length - 1) / this.instances.length;
+            int written = 0;
+            for (BufferManager instance : this.instances) {
+                written += instance.cleanPages(maxInstancePages, lowWatermark, highWatermark);
+            }
+            return written;
+        }
+        List<BufferFrame> candidates;
+        int limit;
+        this.managerLock.lock();
+        try {
+            int numDirty = 0;
+            for (Frame frame : this.frames) {
+                if (frame.isValid() && frame.dirty) {
+                    ++numDirty;
+                }
+            }
+            int lowDirty = (int) (lowWatermark * this.frames.length);
+            if (numDirty > highWatermark * this.frames.length) {
+                this.cleaning = true;
+            }
+            if (!this.cleaning || numDirty <= lowDirty) {
+                this.cleaning = false;
+                return 0;
+            }
+            limit = Math.min(maxPages, numDirty - lowDirty);
+            candidates = this.evictionPolicy.evictionOrder(this.frames);
+        } finally {
+            this.managerLock.unlock();
+        }
+        // frames are written without the manager lock; frames that were pinned, evicted or
+        // reused in the meantime are skipped
+        int written = 0;
+        for (BufferFrame candidate : candidates) {
+            if (written >= limit) {
+                break;
+            }
+            if (((Frame) candidate).tryFlush()) {
+                ++written;
+            }
+        }
+        this.numCleanerWrites.addAndGet(written);
+        return written;
+    }
+
+    /**
+     * Lists the frames of the buffer pool (every instance, if partitioned) in the order
+     * the eviction policy expects to evict them.
+     *
+     * @return frames, from the frame expected to be evicted soonest
+     */
+    List<BufferFrame> evictionOrder() {
+        if (this.instances != null) {
+            List<BufferFrame> order = new ArrayList<>();
+            for (BufferManager instance : this.instances) {
+                order.addAll(instance.evictionOrder());
+            }
+            return order;
+        }
+        this.managerLock.lock();
+        try {
+            return this.evictionPolicy.evictionOrder(this.frames);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of pages written by the page cleaner
+     */
+    public long getNumCleanerWrites() {
+        long total = this.numCleanerWrites.get();
+        if (this.instances != null) {
+            for (BufferManager instance : this.instances) {
+                total += instance.getNumCleanerWrites();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Writes out the given pages if they are loaded, dirty, and not pinned, without
+     * waiting for pages that are in use. Lets the recovery manager trickle out the pages
+     * that have been dirty the longest ahead of a checkpoint.
+     *
+     * @param pageNums page numbers of pages to write
+     * @return number of pages written
+     */
+    public int writeDirtyPages(List<Long> pageNums) {
+        int written = 0;
+        for (long pageNum : pageNums) {
+            BufferManager instance = this.instances == null ? this : this.instanceFor(pageNum);
+            Frame[] frames = instance.frames;
+            int frameIndex = instance.pageTable.get(pageNum);
+            if (frameIndex < 0 || frameIndex >= frames.length || frames[frameIndex].pageNum != pageNum) {
+                continue;
+            }
+            try {
+                if (frames[frameIndex].tryFlush()) {
+                    ++written;
+                }
+            } catch (PageException | IllegalStateException e) {
+                // page was freed while being written
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Fetches a buffer frame for a new page. Pins the buffer frame. Cannot be used outside the package.
+     *
+     * @param partNum partition number for new page
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(int partNum) {
+        return this.fetchNewPageFrame(partNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame for a new page, loaded through an access strategy. Pins the
+     * buffer frame.
+     *
+     * @param partNum partition number for new page
+     * @param strategy access strategy, or null for normal replacement
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(int partNum, BufferAccessStrategy strategy) {
+        long pageNum = this.diskSpaceManager.allocPage(partNum);
+        return fetchPageFrame(pageNum, strategy);
     }
 
     /**
@@ -484,10 +1347,115 @@ public class BufferManager implements AutoCloseable {
      * @return the new page
      */
     public Page fetchNewPage(LockContext parentContext, int partNum) {
-        Frame newFrame = this.fetchNewPageFrame(partNum);
+        return this.fetchNewPage(parentContext, partNum, null);
+    }
+
+    /**
+     * Fetches a new page, with a loaded and pinned buffer frame, loaded through an access
+     * strategy.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param partNum       partition number for new page
+     * @param strategy      access strategy, or null for normal replacement
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, int partNum, BufferAccessStrategy strategy) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, strategy);
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
+    /**
+     * @return size of the buffer (in pages), over all buffer pool instances
+     */
+    public int getBufferSize() {
+        if (this.instances == null) {
+            return this.frames.length;
+        }
+        int bufferSize = 0;
+        for (BufferManager instance : this.instances) {
+            bufferSize += instance.getBufferSize();
+        }
+        return bufferSize;
+    }
+
+    /**
+     * Resizes the buffer, without closing the buffer manager. Growing the buffer adds free
+     * frames. Shrinking the buffer evicts the pages in the frames at the end of the buffer
+     * (writing them out if dirty) and releases those frames; pages in other frames stay
+     * loaded, and can be read and pinned as usual while the buffer is being resized.
+     *
+     * Frames that are pinned or in use cannot be released, so shrinking the buffer stops at
+     * the last such frame: the buffer may end up larger than requested (in which case
+     * resizing can be retried once the pages are unpinned).
+     *
+     * A partitioned buffer is resized by resizing each of its instances, splitting the new
+     * size between them as evenly as when the buffer was created.
+     *
+     * @param bufferSize new size of the buffer (in pages)
+     * @return new size of the buffer (in pages)
+     */
+    public int resize(int bufferSize) {
+        if (bufferSize < 1 || (this.instances != null && bufferSize < this.instances.length)) {
+            throw new IllegalArgumentException("cannot resize buffer of " + this.getNumInstances() +
+                                               " instances to " + bufferSize + " pages");
+        }
+        if (this.instances != null) {
+            int newSize = 0;
+            for (int i = 0; i < this.instances.length; ++i) {
+                int instanceSize = bufferSize / this.instances.length +
+                                   (i < bufferSize % this.instances.length ? 1 : 0);
+                newSize += this.instances[i].resize(instanceSize);
+            }
+            return newSize;
+        }
+        this.managerLock.lock();
+        try {
+            Frame[] frames = this.frames;
+            int oldSize = frames.length;
+            if (bufferSize > oldSize) {
+                Frame[] newFrames = Arrays.copyOf(frames, bufferSize);
+                ByteBuffer[] buffers = allocateFrameBuffers(bufferSize - oldSize, this.offHeap);
+                for (int i = oldSize; i < bufferSize; ++i) {
+                    newFrames[i] = new Frame(buffers[i - oldSize], i + 1);
+                }
+                // the end of the free list (index oldSize) is now the first new frame
+                this.frames = newFrames;
+                return bufferSize;
+            }
+            int newSize = oldSize;
+            while (newSize > bufferSize) {
+                Frame frame = frames[newSize - 1];
+                if (frame.isValid()) {
+                    // as in evict, we must not wait for a frame that is in use
+                    if (!frame.tryLockForEviction()) {
+                        break;
+                    }
+                    try {
+                        this.pageTable.remove(frame.pageNum, frame.index);
+                        evictionPolicy.cleanup(frame);
+                        frame.invalidate();
+                    } finally {
+                        frame.latch.writeLock().unlock();
+                    }
+                }
+                --newSize;
+            }
+            Frame[] newFrames = Arrays.copyOf(frames, newSize);
+            // relink the free list, leaving out the released frames
+            this.firstFreeIndex = newSize;
+            for (int i = newSize - 1; i >= 0; --i) {
+                if (newFrames[i].isFreed()) {
+                    newFrames[i].index = ~this.firstFreeIndex;
+                    this.firstFreeIndex = i;
+                }
+            }
+            this.frames = newFrames;
+            return newSize;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
     /**
      * Frees a page - evicts the page from cache, and tells the disk space manager
      * that the page is no longer needed. Page must be pinned before this call,
@@ -496,14 +1464,18 @@ public class BufferManager implements AutoCloseable {
      * @param page page to free
      */
     public void freePage(Page page) {
+        if (this.instances != null) {
+            this.instanceFor(page.getPageNum()).freePage(page);
+            return;
+        }
         this.managerLock.lock();
         try {
             TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            int frameIndex = this.pageTable.get(page.getPageNum());
 
             Frame frame = this.frames[frameIndex];
             if (transaction != null) page.flush();
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
+            this.pageTable.remove(page.getPageNum(), frameIndex);
             evictionPolicy.cleanup(frame);
             frame.setFree();
 
@@ -522,37 +1494,123 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
+        if (this.instances != null) {
+            for (BufferManager instance : this.instances) {
+                instance.freeFrames(partNum);
+            }
+            diskSpaceManager.freePart(partNum);
+            return;
+        }
+        this.managerLock.lock();
+        try {
+            this.freeFrames(partNum);
+
+            diskSpaceManager.freePart(partNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Frees every frame holding a page of a partition.
+     * @param partNum partition number
+     */
+    private void freeFrames(int partNum) {
         this.managerLock.lock();
         try {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
                 if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
+                    this.pageTable.remove(frame.getPageNum(), i);
                     evictionPolicy.cleanup(frame);
                     frame.flush();
                     frame.setFree();
                     frames[i] = new Frame(frame);
                 }
             }
-
-            diskSpaceManager.freePart(partNum);
         } finally {
             this.managerLock.unlock();
         }
     }
 
+    /**
+     * Flushes the given pages to disk, as Page#flush would, but writes each run of
+     * consecutive dirty pages with a single call to the disk space manager. Pages that
+     * are no longer loaded or that are not dirty are skipped.
+     *
+     * @param pages pages to flush
+     */
+    public void flushPages(List<Page> pages) {
+        List<Frame> run = new ArrayList<>();
+        for (Page page : pages) {
+            Frame frame = (Frame) page.getFrame();
+            frame.latch.readLock().lock();
+            if (!frame.isValid() || !frame.dirty) {
+                frame.latch.readLock().unlock();
+                continue;
+            }
+            if (!run.isEmpty()) {
+                Frame last = run.get(run.size() - 1);
+                if (frame.pageNum != last.pageNum + 1 ||
+                        DiskSpaceManager.getPartNum(frame.pageNum) != DiskSpaceManager.getPartNum(last.pageNum)) {
+                    this.flushRun(run);
+                }
+            }
+            run.add(frame);
+        }
+        if (!run.isEmpty()) {
+            this.flushRun(run);
+        }
+    }
+
+    /**
+     * Writes a run of consecutive, valid, dirty frames to disk, and releases their
+     * latches. The latch of every frame in the run must be held in shared mode.
+     */
+    private void flushRun(List<Frame> run) {
+        try {
+            long maxPageLSN = -1L;
+            ByteBuffer[] contents = new ByteBuffer[run.size()];
+            for (int i = 0; i < run.size(); ++i) {
+                Frame frame = run.get(i);
+                contents[i] = frame.contents.duplicate();
+                if (!frame.logPage && !frame.tempPage) {
+                    maxPageLSN = Math.max(maxPageLSN, frame.getPageLSN());
+                }
+            }
+            if (maxPageLSN >= 0) {
+                recoveryManager.pageFlushHook(maxPageLSN);
+            }
+            this.diskSpaceManager.writePages(run.get(0).pageNum, run.size(), contents);
+            for (Frame frame : run) {
+                this.incrementIOs();
+                frame.dirty = false;
+            }
+        } finally {
+            for (Frame frame : run) {
+                frame.latch.readLock().unlock();
+            }
+            run.clear();
+        }
+    }
+
     /**
      * Calls flush on the frame of a page and unloads the page from the frame. If the page
      * is not loaded, this does nothing.
      * @param pageNum page number of page to evict
      */
     public void evict(long pageNum) {
+        if (this.instances != null) {
+            this.instanceFor(pageNum).evict(pageNum);
+            return;
+        }
         managerLock.lock();
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
+            int frameIndex = pageTable.get(pageNum);
+            if (frameIndex < 0) {
                 return;
             }
-            evict(pageToFrame.get(pageNum));
+            evict(frameIndex);
         } finally {
             managerLock.unlock();
         }
@@ -560,19 +1618,21 @@ public class BufferManager implements AutoCloseable {
 
     private void evict(int i) {
         Frame frame = frames[i];
-        frame.frameLock.lock();
+        // a frame that is pinned or in use cannot be evicted anyways; waiting for its
+        // latch while holding the manager lock could deadlock
+        if (!frame.tryLockForEviction()) {
+            return;
+        }
         try {
-            if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
+            this.pageTable.remove(frame.pageNum, frame.index);
+            evictionPolicy.cleanup(frame);
 
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex);
-                this.firstFreeIndex = i;
+            frames[i] = new Frame(frame.contents, this.firstFreeIndex);
+            this.firstFreeIndex = i;
 
-                frame.invalidate();
-            }
+            frame.invalidate();
         } finally {
-            frame.frameLock.unlock();
+            frame.latch.writeLock().unlock();
         }
     }
 
@@ -580,8 +1640,21 @@ public class BufferManager implements AutoCloseable {
      * Calls evict on every frame in sequence.
      */
     public void evictAll() {
+        if (this.instances != null) {
+            for (BufferManager instance : this.instances) {
+                instance.evictAll();
+            }
+            return;
+        }
         for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+            managerLock.lock();
+            try {
+                if (i < frames.length) {
+                    evict(i);
+                }
+            } finally {
+                managerLock.unlock();
+            }
         }
     }
 
@@ -592,14 +1665,20 @@ public class BufferManager implements AutoCloseable {
      *                (has an unflushed change).
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
+        if (this.instances != null) {
+            for (BufferManager instance : this.instances) {
+                instance.iterPageNums(process);
+            }
+            return;
+        }
         for (Frame frame : frames) {
-            frame.frameLock.lock();
+            frame.latch.readLock().lock();
             try {
                 if (frame.isValid()) {
                     process.accept(frame.pageNum, frame.dirty);
                 }
             } finally {
-                frame.frameLock.unlock();
+                frame.latch.readLock().unlock();
             }
         }
     }
@@ -611,7 +1690,13 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        long total = numIOs.get();
+        if (this.instances != null) {
+            for (BufferManager instance : this.instances) {
+                total += instance.getNumIOs();
+            }
+        }
+        return total;
     }
 
     public static boolean logIOs;
@@ -626,7 +1711,7 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.incrementAndGet();
     }
 
     /**
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of clock eviction policy, which works by adding a reference
  * bit to each frame, and running the algorithm.
@@ -33,12 +36,16 @@ public class ClockEvictionPolicy implements EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     @Override
     public BufferFrame evict(BufferFrame[] frames) {
+        if (this.arm >= frames.length) {
+            // the buffer shrank since the last call
+            this.arm = 0;
+        }
         int iters = 0;
         // loop around the frames looking for a frame that has bit 0
         // iters is used to ensure that we don't loop forever - after two
@@ -58,6 +65,25 @@ public class ClockEvictionPolicy implements EvictionPolicy {
         return evicted;
     }
 
+    /**
+     * Lists frames in the order the policy expects to evict them: frames without the
+     * reference bit set, starting from the arm, then frames with the bit set.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return frames, from the frame expected to be evicted soonest to the frame
+     *         expected to be evicted last
+     */
+    @Override
+    public List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> inactive = new ArrayList<>();
+        List<BufferFrame> active = new ArrayList<>();
+        for (int i = 0; i < frames.length; ++i) {
+            BufferFrame frame = frames[(this.arm + i) % frames.length];
+            (frame.tag == ACTIVE ? active : inactive).add(frame);
+        }
+        inactive.addAll(active);
+        return inactive;
+    }
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
@@ -66,4 +92,14 @@ public class ClockEvictionPolicy implements EvictionPolicy {
      */
     @Override
     public void cleanup(BufferFrame frame) {}
+
+    /**
+     * Creates a new eviction policy of the same kind, with no frames, for use by another
+     * buffer pool instance.
+     * @return new eviction policy
+     */
+    @Override
+    public EvictionPolicy newInstance() {
+        return new ClockEvictionPolicy();
+    }
 }
@@ -1,7 +1,16 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Interface for eviction policies for the buffer manager.
+ *
+ * hit() is called by threads reading from or writing to a page while holding only the
+ * frame's latch in shared mode, so it may run concurrently with itself (on the same or
+ * other frames) and with every other method. The other methods are called with the
+ * buffer manager's lock held. Policies that keep shared state updated on hits must
+ * synchronize it themselves.
  */
 public interface EvictionPolicy {
     /**
@@ -18,7 +27,7 @@ public interface EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
@@ -31,4 +40,23 @@ public interface EvictionPolicy {
      * @param frame frame being removed
      */
     void cleanup(BufferFrame frame);
+
+    /**
+     * Lists frames in the order the policy expects to evict them, without changing the
+     * policy's state. Used by the page cleaner to write out dirty pages before they are
+     * chosen for eviction.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return frames, from the frame expected to be evicted soonest to the frame
+     *         expected to be evicted last
+     */
+    default List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        return Arrays.asList(frames);
+    }
+
+    /**
+     * Creates a new eviction policy of the same kind, with no frames, for use by another
+     * buffer pool instance.
+     * @return new eviction policy
+     */
+    EvictionPolicy newInstance();
 }
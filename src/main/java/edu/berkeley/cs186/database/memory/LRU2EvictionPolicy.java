@@ -0,0 +1,169 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the LRU-2 eviction policy (O'Neil, O'Neil and Weikum), which evicts
+ * the page whose second most recent reference is oldest. Pages referenced only once (such
+ * as pages read by a sequential scan) have no second most recent reference, and are
+ * evicted before any page referenced twice, oldest first.
+ *
+ * Consecutive hits on the same frame by the same thread are correlated (e.g. reading many
+ * records from one page), and count as a single reference; hits from other threads in
+ * between do not break up the run. The reference history of evicted pages is kept
+ * for a while, so that a page that is evicted and loaded again soon after keeps its
+ * history.
+ */
+public class LRU2EvictionPolicy implements EvictionPolicy {
+    // Number of evicted pages whose history is kept, as a multiple of the buffer size
+    private static final int RETAINED_HISTORY_FACTOR = 1;
+
+    // Reference history of a page
+    private static class History {
+        // time of the most recent reference
+        long last;
+        // time of the second most recent reference (-1 if referenced only once)
+        long secondLast;
+
+        private History(long last, long secondLast) {
+            this.last = last;
+            this.secondLast = secondLast;
+        }
+    }
+
+    // Logical clock, advanced on every (uncorrelated) reference
+    private long time;
+    // Frame referenced most recently, by each thread
+    private final ThreadLocal<BufferFrame> lastReferenced = new ThreadLocal<>();
+    // Histories of recently evicted pages, evicted oldest first
+    private LinkedHashMap<Long, History> retained;
+    // Number of frames in the buffer (0 until the first eviction)
+    private int numFrames;
+
+    public LRU2EvictionPolicy() {
+        this.time = 0;
+        this.retained = new LinkedHashMap<>();
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        History history = this.retained.remove(frame.getPageNum());
+        if (history == null) {
+            history = new History(-1, -1);
+        }
+        frame.tag = history;
+        this.reference(frame);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame != this.lastReferenced.get() && frame.tag instanceof History) {
+            this.reference(frame);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        BufferFrame evicted = null;
+        for (BufferFrame frame : frames) {
+            if (frame.isPinned() || !(frame.tag instanceof History)) {
+                continue;
+            }
+            if (evicted == null || compare((History) frame.tag, (History) evicted.tag) < 0) {
+                evicted = frame;
+            }
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag instanceof History) {
+            int maxRetained = RETAINED_HISTORY_FACTOR * this.numFrames;
+            if (maxRetained > 0) {
+                this.retained.put(frame.getPageNum(), (History) frame.tag);
+                Iterator<Map.Entry<Long, History>> iter = this.retained.entrySet().iterator();
+                while (this.retained.size() > maxRetained) {
+                    iter.next();
+                    iter.remove();
+                }
+            }
+        }
+        if (frame == this.lastReferenced.get()) {
+            this.lastReferenced.remove();
+        }
+        frame.tag = null;
+    }
+
+    /**
+     * Lists frames in the order the policy expects to evict them.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return frames, from the frame expected to be evicted soonest to the frame
+     *         expected to be evicted last
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>();
+        for (BufferFrame frame : frames) {
+            if (frame.tag instanceof History) {
+                order.add(frame);
+            }
+        }
+        order.sort((a, b) -> compare((History) a.tag, (History) b.tag));
+        return order;
+    }
+
+    /**
+     * Creates a new eviction policy of the same kind, with no frames, for use by another
+     * buffer pool instance.
+     * @return new eviction policy
+     */
+    @Override
+    public EvictionPolicy newInstance() {
+        return new LRU2EvictionPolicy();
+    }
+
+    private void reference(BufferFrame frame) {
+        History history = (History) frame.tag;
+        history.secondLast = history.last;
+        history.last = ++this.time;
+        this.lastReferenced.set(frame);
+    }
+
+    // orders histories by second most recent reference, then by most recent reference
+    private static int compare(History a, History b) {
+        if (a.secondLast != b.secondLast) {
+            return Long.compare(a.secondLast, b.secondLast);
+        }
+        return Long.compare(a.last, b.last);
+    }
+}
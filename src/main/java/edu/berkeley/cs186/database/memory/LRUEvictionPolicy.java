@@ -1,8 +1,13 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of LRU eviction policy, which works by creating a
- * doubly-linked list between frames in order of ascending use time.
+ * doubly-linked list between frames in order of ascending use time. Every
+ * method that touches the list is synchronized, since hits can come from
+ * several threads at once.
  */
 public class LRUEvictionPolicy implements EvictionPolicy {
     private Tag listHead;
@@ -36,7 +41,7 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame new frame to be initialized
      */
     @Override
-    public void init(BufferFrame frame) {
+    public synchronized void init(BufferFrame frame) {
         Tag frameTag = new Tag();
         frameTag.next = listTail;
         frameTag.prev = listTail.prev;
@@ -51,8 +56,12 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame Frame object that is being read from/written to
      */
     @Override
-    public void hit(BufferFrame frame) {
+    public synchronized void hit(BufferFrame frame) {
         Tag frameTag = (Tag) frame.tag;
+        if (frameTag == null || frameTag.prev == frameTag) {
+            // already removed from the list
+            return;
+        }
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
         frameTag.next = this.listTail;
@@ -63,12 +72,12 @@ public class LRUEvictionPolicy implements EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     @Override
-    public BufferFrame evict(BufferFrame[] frames) {
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
         Tag frameTag = this.listHead.next;
         while (frameTag.cur != null && frameTag.cur.isPinned()) {
             frameTag = frameTag.next;
@@ -79,6 +88,22 @@ public class LRUEvictionPolicy implements EvictionPolicy {
         return frameTag.cur;
     }
 
+    /**
+     * Lists frames in the order the policy expects to evict them: least recently used
+     * first.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return frames, from the frame expected to be evicted soonest to the frame
+     *         expected to be evicted last
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>();
+        for (Tag frameTag = this.listHead.next; frameTag.cur != null; frameTag = frameTag.next) {
+            order.add(frameTag.cur);
+        }
+        return order;
+    }
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
@@ -86,10 +111,20 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      * @param frame frame being removed
      */
     @Override
-    public void cleanup(BufferFrame frame) {
+    public synchronized void cleanup(BufferFrame frame) {
         Tag frameTag = (Tag) frame.tag;
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
         frameTag.prev = frameTag.next = frameTag;
     }
+
+    /**
+     * Creates a new eviction policy of the same kind, with no frames, for use by another
+     * buffer pool instance.
+     * @return new eviction policy
+     */
+    @Override
+    public EvictionPolicy newInstance() {
+        return new LRUEvictionPolicy();
+    }
 }
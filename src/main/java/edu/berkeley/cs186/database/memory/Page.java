@@ -77,6 +77,21 @@ public class Page {
         this.frame.readBytes((short) position, (short) num, buf);
     }
 
+    /**
+     * Checks that num bytes from offset position are in the page.
+     *
+     * @param position the offset in the page to read from
+     * @param num the number of bytes to read
+     */
+    private void checkRead(int position, int num) {
+        if (position < 0) {
+            throw new PageException("position can't be negative");
+        }
+        if (frame.getEffectivePageSize() < position + num) {
+            throw new PageException("read is out of bounds");
+        }
+    }
+
     /**
      * Read all the bytes in file.
      *
@@ -111,6 +126,24 @@ public class Page {
         this.frame.writeBytes((short) position, (short) num, buf);
     }
 
+    /**
+     * Writes all of buf at offset position of a log page, without excluding other writers
+     * of the page: concurrent writes must go to disjoint ranges, and the page must not be
+     * flushed until they return.
+     *
+     * @param position the offset in the page to write to
+     * @param buf the source for the write
+     */
+    public void writeBytesShared(int position, byte[] buf) {
+        if (position < 0) {
+            throw new PageException("position can't be negative");
+        }
+        if (frame.getEffectivePageSize() < buf.length + position) {
+            throw new PageException("writeBytes would go out of bounds");
+        }
+        this.frame.writeBytesShared((short) position, (short) buf.length, buf);
+    }
+
     /**
      * Write all the bytes in file.
      */
@@ -147,6 +180,13 @@ public class Page {
         this.frame.unpin();
     }
 
+    /**
+     * @return the buffer frame this page was last loaded into (potentially invalidated)
+     */
+    BufferFrame getFrame() {
+        return this.frame;
+    }
+
     /**
      * @return the virtual page number of this page
      */
@@ -183,7 +223,8 @@ public class Page {
 
     /**
      * Implementation of Buffer for the page data. All reads/writes ultimately wrap around
-     * Page#readBytes and Page#writeBytes, which delegates work to the buffer manager.
+     * Page#readBytes and Page#writeBytes (or, for primitive values, the buffer frame's
+     * typed reads), which delegate work to the buffer manager.
      */
     private class PageBuffer extends AbstractBuffer {
         private int offset;
@@ -213,6 +254,47 @@ public class Page {
             return this;
         }
 
+        // The absolute reads of primitive values below read directly from the buffer
+        // frame, instead of copying the value's bytes out through get(byte[], int, int).
+
+        @Override
+        public byte get(int index) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+            checkRead(this.offset + index, 1);
+            return Page.this.frame.getByte((short) (this.offset + index));
+        }
+
+        @Override
+        public short getShort(int index) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+            checkRead(this.offset + index, Short.BYTES);
+            return Page.this.frame.getShort((short) (this.offset + index));
+        }
+
+        @Override
+        public int getInt(int index) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+            checkRead(this.offset + index, Integer.BYTES);
+            return Page.this.frame.getInt((short) (this.offset + index));
+        }
+
+        @Override
+        public long getLong(int index) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+            checkRead(this.offset + index, Long.BYTES);
+            return Page.this.frame.getLong((short) (this.offset + index));
+        }
+
+        @Override
+        public float getFloat(int index) {
+            return Float.intBitsToFloat(getInt(index));
+        }
+
+        @Override
+        public double getDouble(int index) {
+            return Double.longBitsToDouble(getLong(index));
+        }
+
         /**
          * All write operations through the Page object must run through this method.
          *
@@ -0,0 +1,188 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Map from page number to buffer frame index, used by the buffer manager to find the
+ * frame a page is loaded in. Keys are stored unboxed in an open-addressing (linear probing)
+ * hash table.
+ *
+ * Lookups take no locks, and may run concurrently with updates. Updates must not run
+ * concurrently with each other (the buffer manager only updates the table while holding
+ * its manager lock). A lookup that races with updates may return a stale frame index, or
+ * miss a page that was just added; callers must check that the frame they get actually
+ * holds the page, and fall back to looking the page up again while holding the manager
+ * lock if they do not find it.
+ */
+class PageTable {
+    // Key of a slot that has never been used. Page numbers are never negative.
+    private static final long EMPTY = -1L;
+    // Key of a slot whose entry was removed.
+    private static final long REMOVED = -2L;
+
+    private static class Table {
+        private final AtomicLongArray keys;
+        private final AtomicIntegerArray values;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; ++i) {
+                this.keys.set(i, EMPTY);
+            }
+        }
+    }
+
+    // Current table. Replaced (never modified in place) when rehashing, so that lookups
+    // on the old table still see a consistent, if stale, table.
+    private volatile Table table;
+
+    // Number of entries, and number of slots that are not EMPTY (entries + removed slots)
+    private int size;
+    private int usedSlots;
+
+    /**
+     * @param expectedSize maximum number of entries the table is expected to hold
+     */
+    PageTable(int expectedSize) {
+        this.table = new Table(capacityFor(expectedSize));
+        this.size = 0;
+        this.usedSlots = 0;
+    }
+
+    /**
+     * Looks up a page. Does not lock.
+     * @param pageNum page number
+     * @return frame index of the page, or -1 if the page is not in the table
+     */
+    int get(long pageNum) {
+        Table t = this.table;
+        int i = hash(pageNum) & t.mask;
+        for (int probes = 0; probes <= t.mask; ++probes) {
+            long key = t.keys.get(i);
+            if (key == pageNum) {
+                return t.values.get(i);
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds or replaces the entry for a page. Must not be called concurrently with any
+     * other update.
+     * @param pageNum page number
+     * @param frameIndex frame index of the page
+     */
+    void put(long pageNum, int frameIndex) {
+        Table t = this.table;
+        int i = hash(pageNum) & t.mask;
+        int free = -1;
+        for (int probes = 0; probes <= t.mask; ++probes) {
+            long key = t.keys.get(i);
+            if (key == pageNum) {
+                t.values.set(i, frameIndex);
+                return;
+            }
+            if (key == REMOVED && free < 0) {
+                free = i;
+            } else if (key == EMPTY) {
+                if (free < 0) {
+                    free = i;
+                    ++this.usedSlots;
+                }
+                break;
+            }
+            i = (i + 1) & t.mask;
+        }
+        // the value is set before the key, so that a concurrent lookup that finds the key
+        // never sees the slot's old value paired with it
+        t.values.set(free, frameIndex);
+        t.keys.set(free, pageNum);
+        ++this.size;
+        if (this.usedSlots > (t.mask + 1) / 4 * 3) {
+            this.rehash();
+        }
+    }
+
+    /**
+     * Removes the entry for a page, if the page maps to the given frame index. Must not
+     * be called concurrently with any other update.
+     * @param pageNum page number
+     * @param frameIndex frame index the page is expected to map to
+     * @return whether the entry was removed
+     */
+    boolean remove(long pageNum, int frameIndex) {
+        Table t = this.table;
+        int i = hash(pageNum) & t.mask;
+        for (int probes = 0; probes <= t.mask; ++probes) {
+            long key = t.keys.get(i);
+            if (key == pageNum) {
+                if (t.values.get(i) != frameIndex) {
+                    return false;
+                }
+                t.keys.set(i, REMOVED);
+                --this.size;
+                return true;
+            }
+            if (key == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & t.mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of entries in the table
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Replaces the table with a new one containing only the current entries (growing it if
+     * it is more than half full), to get rid of removed slots.
+     */
+    private void rehash() {
+        Table old = this.table;
+        int capacity = old.mask + 1;
+        if (this.size > capacity / 2) {
+            capacity *= 2;
+        }
+        Table t = new Table(capacity);
+        for (int i = 0; i <= old.mask; ++i) {
+            long key = old.keys.get(i);
+            if (key >= 0) {
+                int j = hash(key) & t.mask;
+                while (t.keys.get(j) != EMPTY) {
+                    j = (j + 1) & t.mask;
+                }
+                t.values.set(j, old.values.get(i));
+                t.keys.set(j, key);
+            }
+        }
+        this.usedSlots = this.size;
+        this.table = t;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // keep the table at most half full
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static int hash(long pageNum) {
+        long h = pageNum * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,159 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Implementation of the 2Q eviction policy (Johnson and Shasha), which resists being
+ * flushed out by large scans.
+ *
+ * Newly loaded pages go into a FIFO queue (A1in), which takes up a small part of the
+ * buffer; pages referenced only once (such as pages read by a sequential scan) are evicted
+ * from there without disturbing anything else. The page numbers of pages evicted from A1in
+ * are remembered for a while (A1out); a page that is loaded again while remembered is
+ * considered hot, and goes into an LRU queue (Am) instead. Repeated hits on a page while
+ * it is in A1in do not promote it, so that reading many records from one page counts as a
+ * single reference.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    // Fraction of the buffer A1in is allowed to take before its pages are evicted first
+    private static final double A1IN_FRACTION = 0.25;
+    // Number of evicted pages remembered in A1out, as a fraction of the buffer size
+    private static final double A1OUT_FRACTION = 0.5;
+
+    private static final Object A1IN = "A1in";
+    private static final Object AM = "Am";
+
+    // Pages loaded once, oldest first
+    private LinkedHashSet<BufferFrame> a1in;
+    // Hot pages, least recently used first
+    private LinkedHashSet<BufferFrame> am;
+    // Page numbers of pages recently evicted from A1in, oldest first
+    private LinkedHashSet<Long> a1out;
+    // Number of frames in the buffer (0 until the first eviction)
+    private int numFrames;
+
+    public TwoQueueEvictionPolicy() {
+        this.a1in = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        if (this.a1out.remove(frame.getPageNum())) {
+            frame.tag = AM;
+            this.am.add(frame);
+        } else {
+            frame.tag = A1IN;
+            this.a1in.add(frame);
+        }
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame.tag == AM) {
+            this.am.remove(frame);
+            this.am.add(frame);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        BufferFrame evicted;
+        if (this.a1in.size() > Math.max(1, (int) (A1IN_FRACTION * frames.length))) {
+            evicted = firstUnpinned(this.a1in, this.am);
+        } else {
+            evicted = firstUnpinned(this.am, this.a1in);
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag == A1IN) {
+            this.a1in.remove(frame);
+            int maxA1out = (int) (A1OUT_FRACTION * this.numFrames);
+            if (maxA1out > 0) {
+                this.a1out.add(frame.getPageNum());
+                trim(this.a1out, maxA1out);
+            }
+        } else if (frame.tag == AM) {
+            this.am.remove(frame);
+        }
+        frame.tag = null;
+    }
+
+    /**
+     * Lists frames in the order the policy expects to evict them.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return frames, from the frame expected to be evicted soonest to the frame
+     *         expected to be evicted last
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>(this.a1in);
+        order.addAll(this.am);
+        return order;
+    }
+
+    /**
+     * Creates a new eviction policy of the same kind, with no frames, for use by another
+     * buffer pool instance.
+     * @return new eviction policy
+     */
+    @Override
+    public EvictionPolicy newInstance() {
+        return new TwoQueueEvictionPolicy();
+    }
+
+    private static BufferFrame firstUnpinned(LinkedHashSet<BufferFrame> first,
+                                             LinkedHashSet<BufferFrame> second) {
+        for (BufferFrame frame : first) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        for (BufferFrame frame : second) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static void trim(LinkedHashSet<Long> pageNums, int maxSize) {
+        Iterator<Long> iter = pageNums.iterator();
+        while (pageNums.size() > maxSize) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
@@ -10,6 +10,15 @@ import edu.berkeley.cs186.database.recovery.records.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 /**
@@ -25,6 +34,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // transaction number.
     private Function<Long, Transaction> newTransaction;
 
+    // Creates the log manager, given the buffer manager
+    private Function<BufferManager, LogManager> logManagerFactory;
+
     // Log manager
     LogManager logManager;
     // Dirty page table (page number -> recLSN).
@@ -35,8 +47,45 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // to prevent DPT entries from being flushed during restartRedo.
     boolean redoComplete;
 
+    // Number of threads redoing page changes during the redo pass of restart recovery
+    // (1 to redo every record in the calling thread)
+    private int redoThreads = 1;
+
+    // Maximum number of records handed to redo threads that may wait to be redone, per
+    // thread, before the redo pass stops reading the log to let the threads catch up
+    private static final int REDO_QUEUE_SIZE = 1024;
+
+    // Thread taking checkpoints in the background (created by startCheckpointer)
+    private ScheduledExecutorService checkpointer;
+
+    // Longest time the checkpointer waits between checks of whether a checkpoint is due,
+    // in milliseconds
+    private static final long CHECKPOINTER_POLL_MILLIS = 100;
+
+    // Log position (LogManager#getBytesAppended) and time (System#nanoTime) of the
+    // begin checkpoint record of the last checkpoint
+    private volatile long lastCheckpointBytes;
+    private volatile long lastCheckpointNanos = System.nanoTime();
+
+    // Number of checkpoints taken
+    private final AtomicLong numCheckpoints = new AtomicLong(0);
+
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
+        this(newTransaction, LogManager::new);
+    }
+
+    /**
+     * Creates a recovery manager with a custom log manager, e.g. one that keeps the log in
+     * its own files (see SegmentedLogManager) rather than in the log partition.
+     *
+     * @param newTransaction creates a new transaction for recovery with a given
+     *                       transaction number
+     * @param logManagerFactory creates the log manager, given the buffer manager
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction,
+                                Function<BufferManager, LogManager> logManagerFactory) {
         this.newTransaction = newTransaction;
+        this.logManagerFactory = logManagerFactory;
     }
 
     /**
@@ -64,7 +113,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManager(bufferManager);
+        this.logManager = this.logManagerFactory.apply(bufferManager);
     }
 
     // Forward Processing //////////////////////////////////////////////////////
@@ -92,8 +141,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long commit(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        LogRecord record = new CommitTransactionLogRecord(transNum, transactionEntry.lastLSN);
+        long LSN = logManager.appendToLog(record);
+        transactionEntry.lastLSN = LSN;
+        // The commit is durable once the commit record is on disk
+        logManager.flushToLSN(LSN);
+        transactionEntry.transaction.setStatus(Transaction.Status.COMMITTING);
+        return LSN;
     }
 
     /**
@@ -108,8 +165,14 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long abort(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        LogRecord record = new AbortTransactionLogRecord(transNum, transactionEntry.lastLSN);
+        long LSN = logManager.appendToLog(record);
+        transactionEntry.lastLSN = LSN;
+        transactionEntry.transaction.setStatus(Transaction.Status.ABORTING);
+        return LSN;
     }
 
     /**
@@ -126,8 +189,18 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long end(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        if (transactionEntry.transaction.getStatus() == Transaction.Status.ABORTING) {
+            rollbackToLSN(transNum, 0);
+        }
+        LogRecord record = new EndTransactionLogRecord(transNum, transactionEntry.lastLSN);
+        long LSN = logManager.appendToLog(record);
+        transactionEntry.lastLSN = LSN;
+        transactionEntry.transaction.setStatus(Transaction.Status.COMPLETE);
+        transactionTable.remove(transNum);
+        return LSN;
     }
 
     /**
@@ -154,7 +227,15 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Small optimization: if the last record is a CLR we can start rolling
         // back from the next record that hasn't yet been undone.
         long currentLSN = lastRecord.getUndoNextLSN().orElse(lastRecordLSN);
-        // TODO(proj5) implement the rollback logic described above
+        while (currentLSN > LSN) {
+            LogRecord record = logManager.fetchLogRecord(currentLSN);
+            if (record.isUndoable()) {
+                LogRecord clr = record.undo(transactionEntry.lastLSN);
+                transactionEntry.lastLSN = logManager.appendToLog(clr);
+                clr.redo(this, diskSpaceManager, bufferManager);
+            }
+            currentLSN = nextToUndo(record);
+        }
     }
 
     /**
@@ -204,8 +285,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
                              byte[] after) {
         assert (before.length == after.length);
         assert (before.length <= BufferManager.EFFECTIVE_PAGE_SIZE / 2);
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long prevLSN = transactionEntry.lastLSN;
+        LogRecord record = new UpdatePageLogRecord(transNum, pageNum, prevLSN, pageOffset, before, after);
+        long LSN = logManager.appendToLog(record);
+        // Update lastLSN
+        transactionEntry.lastLSN = LSN;
+        dirtyPage(pageNum, LSN);
+        return LSN;
     }
 
     /**
@@ -223,13 +312,18 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long logAllocPart(long transNum, int partNum) {
+        return this.logAllocPart(transNum, partNum, DiskSpaceManager.ANY_TABLESPACE, false);
+    }
+
+    @Override
+    public long logAllocPart(long transNum, int partNum, int tablespace, boolean compressed) {
         // Ignore if part of the log.
         if (partNum == 0) return -1L;
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
         assert (transactionEntry != null);
 
         long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
+        LogRecord record = new AllocPartLogRecord(transNum, partNum, tablespace, compressed, prevLSN);
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
@@ -253,6 +347,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public long logFreePart(long transNum, int partNum) {
+        return this.logFreePart(transNum, partNum, DiskSpaceManager.ANY_TABLESPACE, false);
+    }
+
+    @Override
+    public long logFreePart(long transNum, int partNum, int tablespace, boolean compressed) {
         // Ignore if part of the log.
         if (partNum == 0) return -1L;
 
@@ -260,7 +359,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         assert (transactionEntry != null);
 
         long prevLSN = transactionEntry.lastLSN;
-        LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
+        LogRecord record = new FreePartLogRecord(transNum, partNum, tablespace, compressed, prevLSN);
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
@@ -379,9 +478,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         // All of the transaction's changes strictly after the record at LSN should be undone.
         long savepointLSN = transactionEntry.getSavepoint(name);
-
-        // TODO(proj5): implement
-        return;
+        rollbackToLSN(transNum, savepointLSN);
     }
 
     /**
@@ -401,23 +498,160 @@ public class ARIESRecoveryManager implements RecoveryManager {
     @Override
     public synchronized void checkpoint() {
         // Create begin checkpoint log record and write to log
+        long beginBytes = logManager.getBytesAppended();
+        long beginNanos = System.nanoTime();
         LogRecord beginRecord = new BeginCheckpointLogRecord();
         long beginLSN = logManager.appendToLog(beginRecord);
 
         Map<Long, Long> chkptDPT = new HashMap<>();
         Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
 
-        // TODO(proj5): generate end checkpoint record(s) for DPT and transaction table
+        for (Map.Entry<Long, Long> entry : dirtyPageTable.entrySet()) {
+            if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size() + 1, 0)) {
+                logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
+                chkptDPT.clear();
+            }
+            chkptDPT.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size(), chkptTxnTable.size() + 1)) {
+                logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
+                chkptDPT.clear();
+                chkptTxnTable.clear();
+            }
+            TransactionTableEntry txnEntry = entry.getValue();
+            chkptTxnTable.put(entry.getKey(), new Pair<>(txnEntry.transaction.getStatus(), txnEntry.lastLSN));
+        }
 
         // Last end checkpoint record
         LogRecord endRecord = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
         logManager.appendToLog(endRecord);
         // Ensure checkpoint is fully flushed before updating the master record
         flushToLSN(endRecord.getLSN());
+        // Pages removed from the DPT must actually be on disk before the
+        // checkpoint becomes the restart point (matters if page writes are deferred)
+        diskSpaceManager.sync();
 
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
+
+        this.lastCheckpointBytes = beginBytes;
+        this.lastCheckpointNanos = beginNanos;
+        this.numCheckpoints.incrementAndGet();
+    }
+
+    /**
+     * Starts a background thread that takes a checkpoint whenever intervalMillis
+     * milliseconds have passed, or logBytes bytes of log have been written, since the
+     * begin checkpoint record of the last checkpoint. This bounds how much of the log
+     * analysis has to read after a crash. Before each checkpoint, up to
+     * pagesPerCheckpoint of the pages with the oldest recLSNs are written out (if not in
+     * use), so that the start of redo keeps moving forward as well.
+     *
+     * @param intervalMillis maximum time between checkpoints, in milliseconds
+     * @param logBytes maximum amount of log written between checkpoints, in bytes
+     * @param pagesPerCheckpoint maximum number of dirty pages written before each
+     *                           checkpoint (0 to write none)
+     */
+    public void startCheckpointer(long intervalMillis, long logBytes, int pagesPerCheckpoint) {
+        if (intervalMillis <= 0 || logBytes <= 0 || pagesPerCheckpoint < 0) {
+            throw new IllegalArgumentException("invalid checkpointer interval " + intervalMillis + "ms, " +
+                                               logBytes + " bytes, " + pagesPerCheckpoint + " pages");
+        }
+        synchronized (this) {
+            if (this.checkpointer != null) {
+                throw new IllegalStateException("checkpointer already running");
+            }
+            this.checkpointer = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+                Thread t = new Thread(r, "checkpointer");
+                t.setDaemon(true);
+                return t;
+            });
+            long pollMillis = Math.min(intervalMillis, CHECKPOINTER_POLL_MILLIS);
+            this.checkpointer.scheduleWithFixedDelay(() -> {
+                try {
+                    this.checkpointIfDue(intervalMillis, logBytes, pagesPerCheckpoint);
+                } catch (RuntimeException e) {
+                    // e.g. could not write the checkpoint out - still due, so retried on the
+                    // next check (an exception escaping the task would cancel it)
+                }
+            }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the checkpointer, if running, waiting for a checkpoint in progress to finish.
+     */
+    public void stopCheckpointer() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.checkpointer;
+            this.checkpointer = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes a checkpoint, after writing out some of the oldest dirty pages, if enough
+     * time has passed or enough log has been written since the last checkpoint. Called
+     * periodically by the checkpointer.
+     *
+     * @param intervalMillis maximum time between checkpoints, in milliseconds
+     * @param logBytes maximum amount of log written between checkpoints, in bytes
+     * @param pagesPerCheckpoint maximum number of dirty pages written before the checkpoint
+     * @return whether a checkpoint was taken
+     */
+    boolean checkpointIfDue(long intervalMillis, long logBytes, int pagesPerCheckpoint) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastCheckpointNanos);
+        long loggedBytes = logManager.getBytesAppended() - this.lastCheckpointBytes;
+        if (elapsedMillis < intervalMillis && loggedBytes < logBytes) {
+            return false;
+        }
+        if (pagesPerCheckpoint > 0) {
+            this.writeOldestPages(pagesPerCheckpoint);
+        }
+        this.checkpoint();
+        return true;
+    }
+
+    /**
+     * Writes out (through the buffer manager) up to maxPages of the pages in the DPT with
+     * the lowest recLSNs. Pages that are in use are skipped.
+     *
+     * @param maxPages maximum number of pages to write
+     * @return number of pages written
+     */
+    int writeOldestPages(int maxPages) {
+        PriorityQueue<Map.Entry<Long, Long>> newest = new PriorityQueue<>(
+            (Map.Entry<Long, Long> e1, Map.Entry<Long, Long> e2) -> Long.compare(e2.getValue(), e1.getValue()));
+        for (Map.Entry<Long, Long> entry : dirtyPageTable.entrySet()) {
+            newest.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            if (newest.size() > maxPages) {
+                newest.poll();
+            }
+        }
+        List<Long> pageNums = new ArrayList<>();
+        while (!newest.isEmpty()) {
+            pageNums.add(newest.poll().getKey());
+        }
+        Collections.reverse(pageNums);
+        return bufferManager.writeDirtyPages(pageNums);
+    }
+
+    /**
+     * @return number of checkpoints taken
+     */
+    public long getNumCheckpoints() {
+        return this.numCheckpoints.get();
     }
 
     /**
@@ -442,12 +676,31 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     @Override
     public void close() {
+        this.stopCheckpointer();
         this.checkpoint();
         this.logManager.close();
     }
 
     // Restart Recovery ////////////////////////////////////////////////////////
 
+    /**
+     * Sets how many threads redo changes to pages during the redo pass of restart
+     * recovery. Changes to different pages are independent, so with more than one thread,
+     * records that modify a page are handed to the thread responsible for that page (which
+     * redoes them in the order they were logged), while the log is still being read.
+     * Records that allocate or free partitions are redone once every earlier record has
+     * been redone. The undo pass is not affected.
+     *
+     * @param redoThreads number of threads; 1 (the default) redoes every record in order,
+     *                    in the thread performing recovery
+     */
+    public void setRedoThreads(int redoThreads) {
+        if (redoThreads < 1) {
+            throw new IllegalArgumentException("need at least one redo thread");
+        }
+        this.redoThreads = redoThreads;
+    }
+
     /**
      * Called whenever the database starts up, and performs restart recovery.
      * Recovery is complete when the Runnable returned is run to termination.
@@ -519,8 +772,115 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = masterRecord.lastCheckpointLSN;
         // Set of transactions that have completed
         Set<Long> endedTransactions = new HashSet<>();
-        // TODO(proj5): implement
-        return;
+
+        Iterator<LogRecord> records = logManager.scanFrom(LSN);
+        while (records.hasNext()) {
+            record = records.next();
+            if (record.getTransNum().isPresent()) {
+                long transNum = record.getTransNum().get();
+                if (!transactionTable.containsKey(transNum)) {
+                    startTransaction(newTransaction.apply(transNum));
+                }
+                transactionTable.get(transNum).lastLSN = record.getLSN();
+            }
+            if (record.getPageNum().isPresent()) {
+                long pageNum = record.getPageNum().get();
+                switch (record.getType()) {
+                case UPDATE_PAGE:
+                case UNDO_UPDATE_PAGE:
+                    dirtyPage(pageNum, record.getLSN());
+                    break;
+                case FREE_PAGE:
+                case UNDO_ALLOC_PAGE:
+                    dirtyPageTable.remove(pageNum);
+                    break;
+                default:
+                    break;
+                }
+            }
+            switch (record.getType()) {
+            case COMMIT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction.setStatus(
+                    Transaction.Status.COMMITTING);
+                break;
+            case ABORT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction.setStatus(
+                    Transaction.Status.RECOVERY_ABORTING);
+                break;
+            case END_TRANSACTION:
+                long transNum = record.getTransNum().get();
+                Transaction transaction = transactionTable.remove(transNum).transaction;
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                endedTransactions.add(transNum);
+                break;
+            case END_CHECKPOINT:
+                dirtyPageTable.putAll(record.getDirtyPageTable());
+                for (Map.Entry<Long, Pair<Transaction.Status, Long>> entry
+                        : record.getTransactionTable().entrySet()) {
+                    long chkptTransNum = entry.getKey();
+                    if (endedTransactions.contains(chkptTransNum)) {
+                        continue;
+                    }
+                    if (!transactionTable.containsKey(chkptTransNum)) {
+                        startTransaction(newTransaction.apply(chkptTransNum));
+                    }
+                    TransactionTableEntry transactionEntry = transactionTable.get(chkptTransNum);
+                    transactionEntry.lastLSN = Math.max(transactionEntry.lastLSN, entry.getValue().getSecond());
+                    Transaction.Status status = entry.getValue().getFirst();
+                    if (status == Transaction.Status.ABORTING) {
+                        status = Transaction.Status.RECOVERY_ABORTING;
+                    }
+                    if (statusOrder(status) > statusOrder(transactionEntry.transaction.getStatus())) {
+                        transactionEntry.transaction.setStatus(status);
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        for (TransactionTableEntry transactionEntry : new ArrayList<>(transactionTable.values())) {
+            Transaction transaction = transactionEntry.transaction;
+            long transNum = transaction.getTransNum();
+            switch (transaction.getStatus()) {
+            case COMMITTING:
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                transactionTable.remove(transNum);
+                break;
+            case RUNNING:
+                transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                transactionEntry.lastLSN = logManager.appendToLog(
+                    new AbortTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                break;
+            case COMPLETE:
+                // ended (and its end record appended) after the checkpoint started
+                transaction.cleanup();
+                transactionTable.remove(transNum);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param status status of a transaction
+     * @return position of the status in the order statuses change in: running, then
+     *         committing or aborting, then complete
+     */
+    private static int statusOrder(Transaction.Status status) {
+        switch (status) {
+        case RUNNING:
+            return 0;
+        case COMPLETE:
+            return 2;
+        default:
+            return 1;
+        }
     }
 
     /**
@@ -536,8 +896,169 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   the pageLSN is checked, and the record is redone if needed.
      */
     void restartRedo() {
-        // TODO(proj5): implement
-        return;
+        // Page and partition allocations are forced to disk by the disk space manager
+        // when they happen, so only changes to dirty pages can need redoing
+        if (dirtyPageTable.isEmpty()) {
+            return;
+        }
+        long startLSN = Collections.min(dirtyPageTable.values());
+        Iterator<LogRecord> records = logManager.scanFrom(startLSN);
+        if (redoThreads == 1) {
+            while (records.hasNext()) {
+                LogRecord record = records.next();
+                if (isPartitionRecord(record)) {
+                    record.redo(this, diskSpaceManager, bufferManager);
+                } else {
+                    redoPageRecord(record);
+                }
+            }
+            return;
+        }
+        restartRedoInParallel(records);
+    }
+
+    /**
+     * Redo pass with several redo threads (see setRedoThreads). Records are read from the
+     * log once, by the calling thread, and records for a page are queued (in log order) for
+     * the thread responsible for the page. Records for partitions are redone by the calling
+     * thread, after waiting for the redo threads to finish every record queued before.
+     *
+     * @param records records to redo (if needed), in log order
+     */
+    private void restartRedoInParallel(Iterator<LogRecord> records) {
+        ExecutorService[] workers = new ExecutorService[redoThreads];
+        for (int i = 0; i < workers.length; ++i) {
+            String name = "redo-" + i;
+            workers[i] = Executors.newSingleThreadExecutor((Runnable r) -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        Semaphore queued = new Semaphore(REDO_QUEUE_SIZE * redoThreads);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        try {
+            while (records.hasNext() && failure.get() == null) {
+                LogRecord record = records.next();
+                if (isPartitionRecord(record)) {
+                    awaitRedo(workers);
+                    if (failure.get() == null) {
+                        record.redo(this, diskSpaceManager, bufferManager);
+                    }
+                    continue;
+                }
+                if (!record.isRedoable() || !record.getPageNum().isPresent()) {
+                    continue;
+                }
+                long pageNum = record.getPageNum().get();
+                queued.acquireUninterruptibly();
+                workers[(int) Long.remainderUnsigned(pageNum, workers.length)].execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            redoPageRecord(record);
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+            awaitRedo(workers);
+        } finally {
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Waits for redo threads to finish every record queued so far.
+     */
+    private static void awaitRedo(ExecutorService[] workers) {
+        List<Future<?>> done = new ArrayList<>();
+        for (ExecutorService worker : workers) {
+            // each thread runs its records in order, so this runs after all of them
+            done.add(worker.submit(() -> {}));
+        }
+        boolean interrupted = false;
+        for (Future<?> future : done) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param record log record
+     * @return whether the record is a redoable record for a partition, which is always
+     *         redone
+     */
+    private static boolean isPartitionRecord(LogRecord record) {
+        switch (record.getType()) {
+        case ALLOC_PART:
+        case FREE_PART:
+        case UNDO_ALLOC_PART:
+        case UNDO_FREE_PART:
+            return record.isRedoable();
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Redoes a record (other than a partition record) during the redo pass, if needed:
+     * records that allocate a page are always redone, and records that modify a page
+     * are redone if the page is in the dirty page table with a recLSN no later than the
+     * record, and the page on disk does not already reflect the record.
+     *
+     * @param record log record
+     */
+    private void redoPageRecord(LogRecord record) {
+        if (!record.isRedoable()) {
+            return;
+        }
+        switch (record.getType()) {
+        case ALLOC_PAGE:
+        case UNDO_FREE_PAGE:
+            record.redo(this, diskSpaceManager, bufferManager);
+            return;
+        case UPDATE_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case FREE_PAGE:
+        case UNDO_ALLOC_PAGE:
+            long pageNum = record.getPageNum().get();
+            Long recLSN = dirtyPageTable.get(pageNum);
+            if (recLSN == null || record.getLSN() < recLSN) {
+                return;
+            }
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+            long pageLSN;
+            try {
+                pageLSN = page.getPageLSN();
+            } finally {
+                page.unpin();
+            }
+            if (pageLSN < record.getLSN()) {
+                record.redo(this, diskSpaceManager, bufferManager);
+            }
+            return;
+        default:
+            return;
+        }
     }
 
     /**
@@ -554,8 +1075,42 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   and remove from transaction table.
      */
     void restartUndo() {
-        // TODO(proj5): implement
-        return;
+        // (LSN of next record to undo, transaction number), largest LSN first
+        PriorityQueue<Pair<Long, Long>> toUndo = new PriorityQueue<>(new PairFirstReverseComparator<>());
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            if (entry.getValue().transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING) {
+                toUndo.add(new Pair<>(entry.getValue().lastLSN, entry.getKey()));
+            }
+        }
+        while (!toUndo.isEmpty()) {
+            Pair<Long, Long> next = toUndo.poll();
+            long transNum = next.getSecond();
+            TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+            LogRecord record = logManager.fetchLogRecord(next.getFirst());
+            if (record.isUndoable()) {
+                LogRecord clr = record.undo(transactionEntry.lastLSN);
+                transactionEntry.lastLSN = logManager.appendToLog(clr);
+                clr.redo(this, diskSpaceManager, bufferManager);
+            }
+            long nextLSN = nextToUndo(record);
+            if (nextLSN == 0) {
+                transactionEntry.transaction.cleanup();
+                transactionEntry.transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, transactionEntry.lastLSN));
+                transactionTable.remove(transNum);
+            } else {
+                toUndo.add(new Pair<>(nextLSN, transNum));
+            }
+        }
+    }
+
+    /**
+     * @param record log record of a transaction being rolled back
+     * @return LSN of the next record of the transaction to undo after this one: the
+     *         undoNextLSN of a CLR, the prevLSN otherwise (0 once none is left)
+     */
+    private static long nextToUndo(LogRecord record) {
+        return record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
     }
 
     /**
@@ -13,6 +13,8 @@ import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
@@ -33,27 +35,115 @@ import java.util.*;
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
  * These must be called from the buffer manager to ensure that pageLSN is up to date, and
  * that flushedLSN >= any pageLSN on disk.
+ *
+ * Flushes use group commit: while one thread (the leader) is writing out the log, other
+ * threads asking for the log to be flushed (the followers) wait, noting the highest LSN
+ * any of them needs. Once the write is done, one of the followers whose LSN is not yet
+ * covered becomes the next leader, and flushes the log up to the highest noted LSN with a
+ * single write; the others find their LSN covered by that flush and return. The log is not
+ * locked while it is written out, so records can be appended in the meantime.
+ *
+ * Appending a record does not lock the log either (except to start a new page). Space for
+ * the record is reserved at the end of the last page of the log (the log tail) by
+ * atomically advancing the page's reserved offset, which determines the record's LSN;
+ * the record is then copied into the reserved space, concurrently with other records
+ * being copied into theirs: since reserved ranges never overlap, the copy only holds the
+ * page's latch in shared mode. The log tail stays pinned while records are appended to it,
+ * and each page counts how many bytes of records have been copied into it, so that the
+ * page is not unpinned or flushed while records are still being copied.
+ *
+ * Until every reserved byte of the log tail has been copied, the reserved space may have
+ * gaps that hold no record yet, anywhere before the reserved offset. Readers must therefore
+ * not read the log tail past the records whose LSNs appendToLog has returned, unless the
+ * page has been flushed (flushing waits for all copies into the page to finish).
  */
 public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private BufferManager bufferManager;
     private Deque<Page> unflushedLogTail;
-    private Page logTail;
-    private Buffer logTailBuffer;
-    private boolean logTailPinned = false;
-    private long flushedLSN;
+    // Page records are appended to (null if the next record starts a new page)
+    private volatile LogTail logTail;
+    private volatile long flushedLSN;
+    // Number of bytes of records appended to the log
+    private final AtomicLong bytesAppended = new AtomicLong(0);
+
+    // Lock (and condition) for group commit. Held only briefly; in particular, never held
+    // while acquiring the log manager's own lock, which must always be acquired first.
+    private final Object groupCommitLock = new Object();
+    // Highest LSN any thread has asked to be flushed (guarded by groupCommitLock)
+    private long requestedFlushLSN = -1L;
+    // Whether a leader is writing out the log (guarded by groupCommitLock)
+    private boolean flushing = false;
 
     public static final int LOG_PARTITION = 0;
 
+    /**
+     * The page at the end of the log that records are being appended to. Pinned until the
+     * log moves on to another page, or the page is flushed (at which point the page is
+     * sealed, and no more records can be appended to it).
+     */
+    private static class LogTail {
+        // Set in reserved once the page is sealed
+        private static final int SEALED = 1 << 30;
+
+        private final Page page;
+        // Number of bytes reserved for records (with the SEALED bit set once sealed)
+        private final AtomicInteger reserved = new AtomicInteger(0);
+        // Number of bytes of records copied into the reserved space; the page only holds
+        // every reserved record once this catches up with reserved
+        private final AtomicInteger written = new AtomicInteger(0);
+
+        private LogTail(Page page) {
+            this.page = page;
+        }
+
+        /**
+         * Reserves space for a record at the end of the page.
+         * @param length length of the record
+         * @return offset of the reserved space, or -1 if the record does not fit (or the
+         *         page is sealed)
+         */
+        private int reserve(int length) {
+            while (true) {
+                int position = reserved.get();
+                if (position + length > DiskSpaceManager.PAGE_SIZE) {
+                    return -1;
+                }
+                if (reserved.compareAndSet(position, position + length)) {
+                    return position;
+                }
+            }
+        }
+
+        /**
+         * Seals the page, waits for records being copied into it to finish, and unpins it.
+         * Must be called exactly once, once the page is no longer the log tail.
+         */
+        private void release() {
+            int end = reserved.updateAndGet(r -> r | SEALED) & ~SEALED;
+            while (written.get() < end) {
+                Thread.yield();
+            }
+            page.unpin();
+        }
+    }
+
     LogManager(BufferManager bufferManager) {
         this.bufferManager = bufferManager;
         this.unflushedLogTail = new ArrayDeque<>();
 
-        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        this.unflushedLogTail.add(this.logTail);
-        this.logTailBuffer = this.logTail.getBuffer();
-        this.logTail.unpin();
+        Page page = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+        this.unflushedLogTail.add(page);
+        this.logTail = new LogTail(page);
+
+        this.flushedLSN = maxLSN(page.getPageNum() - 1L);
+    }
 
-        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+    /**
+     * Constructor for log managers that do not keep the log in the log partition, and
+     * override every public method (see SegmentedLogManager).
+     */
+    LogManager() {
+        this.unflushedLogTail = new ArrayDeque<>();
     }
 
     /**
@@ -75,35 +165,45 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to append to the log
      * @return LSN of new log record
      */
-    public synchronized long appendToLog(LogRecord record) {
+    public long appendToLog(LogRecord record) {
         byte[] bytes = record.toBytes();
-        // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
-        do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
-                logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-                unflushedLogTail.add(logTail);
-                logTailBuffer = logTail.getBuffer();
-            } else {
-                logTailPinned = true;
-                logTail.pin();
-                if (logTailBuffer == null) {
-                    logTail.unpin();
-                }
+        while (true) {
+            LogTail tail = this.logTail;
+            int pos = tail == null ? -1 : tail.reserve(bytes.length);
+            if (pos < 0) {
+                this.startLogTail(tail);
+                continue;
             }
-        } while (logTailBuffer == null);
-        try {
-            int pos = logTailBuffer.position();
-            logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
+            try {
+                tail.page.writeBytesShared(pos, bytes);
+            } finally {
+                tail.written.addAndGet(bytes.length);
+            }
+            bytesAppended.addAndGet(bytes.length);
+            long LSN = makeLSN(tail.page.getPageNum(), pos);
             record.LSN = LSN;
             return LSN;
-        } finally {
-            logTail.unpin();
-            logTailPinned = false;
         }
     }
 
+    /**
+     * Starts a new page at the end of the log, unless another thread already did.
+     * @param fullTail log tail that a record did not fit on (null if there was none)
+     */
+    private synchronized void startLogTail(LogTail fullTail) {
+        if (this.logTail != fullTail) {
+            return;
+        }
+        Page page = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+        // loading the new page may have required flushing the log (to evict a dirty page),
+        // which releases the log tail if it was flushed
+        if (this.logTail != null) {
+            this.logTail.release();
+        }
+        unflushedLogTail.add(page);
+        this.logTail = new LogTail(page);
+    }
+
     /**
      * Fetches a specific log record.
      * @param LSN LSN of record to fetch
@@ -130,26 +230,95 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * Flushes the log to at least the specified record,
      * essentially flushing up to and including the page
      * that contains the record specified by the LSN.
+     *
+     * If another thread is already flushing the log, waits for it to finish, and then
+     * flushes the log (if still necessary) on behalf of every thread that asked for a
+     * flush in the meantime (see group commit, above).
+     *
      * @param LSN LSN up to which the log should be flushed
      */
-    public synchronized void flushToLSN(long LSN) {
-        Iterator<Page> iter = unflushedLogTail.iterator();
-        long pageNum = getLSNPage(LSN);
-        while (iter.hasNext()) {
-            Page page = iter.next();
-            if (page.getPageNum() > pageNum) {
-                break;
+    public void flushToLSN(long LSN) {
+        long pageNum;
+        List<Page> pages = new ArrayList<>();
+        while (true) {
+            synchronized (groupCommitLock) {
+                requestedFlushLSN = Math.max(requestedFlushLSN, LSN);
+                if (!awaitFlush(LSN)) {
+                    return;
+                }
+            }
+            // the leader takes the log manager's lock before the group commit lock (as
+            // appendToLog does, if evicting a page requires flushing the log) - a thread
+            // holding it while waiting for a flush would otherwise block the leader
+            synchronized (this) {
+                synchronized (groupCommitLock) {
+                    if (flushing) {
+                        // another thread became the leader first
+                        continue;
+                    }
+                    if (LSN <= flushedLSN) {
+                        return;
+                    }
+                    flushing = true;
+                    pageNum = getLSNPage(requestedFlushLSN);
+                }
+                Iterator<Page> iter = unflushedLogTail.iterator();
+                while (iter.hasNext()) {
+                    Page page = iter.next();
+                    if (page.getPageNum() > pageNum) {
+                        break;
+                    }
+                    pages.add(page);
+                    iter.remove();
+                }
+                // records are never appended to a flushed page, so that the flushed part of
+                // the log is never written again; this also waits for records still being
+                // copied into the page
+                if (logTail != null && logTail.page.getPageNum() <= pageNum) {
+                    logTail.release();
+                    logTail = null;
+                }
+            }
+            break;
+        }
+        boolean flushed = false;
+        try {
+            // log pages are consecutive, so this is usually a single write
+            bufferManager.flushPages(pages);
+            flushed = true;
+        } finally {
+            synchronized (groupCommitLock) {
+                if (flushed) {
+                    flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
+                }
+                flushing = false;
+                groupCommitLock.notifyAll();
             }
-            page.flush();
-            iter.remove();
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
-        if (unflushedLogTail.size() == 0) {
-            if (!logTailPinned) {
-                logTail = null;
+    }
+
+    /**
+     * Waits for the leader (if any) to finish writing out the log. The group commit lock
+     * must be held.
+     * @param LSN LSN up to which the log should be flushed
+     * @return whether the log still has to be flushed up to LSN
+     */
+    private boolean awaitFlush(long LSN) {
+        boolean interrupted = false;
+        try {
+            while (flushing && LSN > flushedLSN) {
+                try {
+                    groupCommitLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            logTailBuffer = null;
         }
+        return LSN > flushedLSN;
     }
 
     /**
@@ -159,6 +328,15 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return flushedLSN;
     }
 
+    /**
+     * Returns a running count of the bytes appended to the log. Only the difference
+     * between two calls is meaningful: it is the amount of log written in between.
+     * @return bytes appended to the log
+     */
+    public long getBytesAppended() {
+        return bytesAppended.get();
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -93,6 +93,21 @@ public interface RecoveryManager extends AutoCloseable {
      */
     long logAllocPart(long transNum, int partNum);
 
+    /**
+     * Called when a new partition is allocated, like logAllocPart(transNum, partNum),
+     * but also records where the partition is placed, so that recovery can recreate
+     * it in the same place.
+     *
+     * @param transNum transaction requesting the allocation
+     * @param partNum partition number of the new partition
+     * @param tablespace index of the partition's tablespace, or DiskSpaceManager.ANY_TABLESPACE
+     * @param compressed whether the partition's pages are stored compressed
+     * @return LSN of record or -1 if log partition
+     */
+    default long logAllocPart(long transNum, int partNum, int tablespace, boolean compressed) {
+        return logAllocPart(transNum, partNum);
+    }
+
     /**
      * Called when a partition is freed. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
@@ -105,6 +120,21 @@ public interface RecoveryManager extends AutoCloseable {
      */
     long logFreePart(long transNum, int partNum);
 
+    /**
+     * Called when a partition is freed, like logFreePart(transNum, partNum), but also
+     * records where the partition was placed, so that undoing the free recreates it
+     * in the same place.
+     *
+     * @param transNum transaction requesting the partition be freed
+     * @param partNum partition number of the partition being freed
+     * @param tablespace index of the partition's tablespace, or DiskSpaceManager.ANY_TABLESPACE
+     * @param compressed whether the partition's pages are stored compressed
+     * @return LSN of record or -1 if log partition
+     */
+    default long logFreePart(long transNum, int partNum, int tablespace, boolean compressed) {
+        return logFreePart(transNum, partNum);
+    }
+
     /**
      * Called when a new page is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
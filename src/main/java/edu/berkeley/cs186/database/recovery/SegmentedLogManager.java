@@ -0,0 +1,546 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Log manager that writes the log to its own files, sequentially, instead of to the log
+ * partition through the buffer manager. Log writes therefore never take up buffer frames,
+ * and never require evicting (and writing out) data pages.
+ *
+ * LSNs are byte offsets into the log. The log is split into segment files of segmentSize
+ * bytes each (named after the segment number, e.g. 0.log, 1.log, ...), which are created at
+ * their full size, so that forcing a write to the log does not also have to update the
+ * size of the file. A record never spans two segments: if a record does not fit at the
+ * end of a segment, the rest of the segment is left empty (zeroed), and the record starts
+ * the next segment. The master record is the first record of the log (LSN 0), and as with
+ * LogManager, is the only record in the log that may be rewritten.
+ *
+ * Each record is preceded by a checksum of its LSN and its bytes, so that the end of the
+ * log can be found after a crash: a write of several records that was torn by the crash
+ * may have left a record only partly written, or left records written after space that
+ * was never written. Since a segment is only written once every earlier segment has been
+ * forced, only the last segment can hold such a write. When the log is opened, it ends at
+ * the first record of the last segment whose checksum does not match, and the rest of the
+ * segment is zeroed, so that stale bytes after the end of the log can never be read as
+ * records once new records are appended.
+ *
+ * Records are appended to an in-memory log buffer, which is only locked while a record is
+ * copied into it. There are two log buffers: flushToLSN swaps them, and writes out (and
+ * forces) the records in one while records are appended to the other. Flushes use group
+ * commit: threads that ask for the log to be flushed while it is being written out wait
+ * for the write to finish, and the first of them then writes out (with a single write)
+ * all the records appended in the meantime, which usually covers the others.
+ */
+public class SegmentedLogManager extends LogManager {
+    // Default size of a segment file (in bytes)
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // Default size of each of the two log buffers (in bytes)
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    // Size of the checksum preceding each record (in bytes)
+    static final int RECORD_HEADER_SIZE = Integer.BYTES;
+
+    // Maximum space taken by a record and its checksum (in bytes)
+    private static final int MAX_RECORD_SPACE = RECORD_HEADER_SIZE + DiskSpaceManager.PAGE_SIZE;
+
+    // Directory holding the segment files
+    private final String logDir;
+
+    // Size of a segment file (in bytes)
+    private final int segmentSize;
+
+    // Open segment files, by segment number (synchronized on itself)
+    private final Map<Long, FileChannel> segments = new HashMap<>();
+
+    // Buffer records are appended to, and the LSN of its first byte (guarded by this)
+    private ByteBuffer appendBuffer;
+    private long appendStart;
+
+    // Buffer being written out by flushToLSN (or whose write failed, until it is retried),
+    // or null if none, and the LSN of its first byte (guarded by this). Records in it can
+    // still be read while it is being written.
+    private ByteBuffer writeBuffer;
+    private long writeStart;
+
+    // Buffer not in use (guarded by this)
+    private ByteBuffer spareBuffer;
+
+    // Lock held while writing out the log; the log manager's own lock (used to append
+    // records) may be acquired while holding this lock, but not the other way around
+    private final Object flushLock = new Object();
+
+    // Every record with an LSN up to flushedLSN has been written out and forced
+    private volatile long flushedLSN;
+
+    /**
+     * Opens (or creates) a log in the given directory, with segments and log buffers of
+     * the default size. If the log already exists, records are appended after the last
+     * record in the log.
+     *
+     * @param logDir directory holding the segment files
+     */
+    public SegmentedLogManager(String logDir) {
+        this(logDir, DEFAULT_SEGMENT_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens (or creates) a log in the given directory. If the log already exists, records
+     * are appended after the last record in the log; segmentSize must be the same as when
+     * the log was created.
+     *
+     * @param logDir directory holding the segment files
+     * @param segmentSize size of a segment file (in bytes); more than a page
+     * @param bufferSize size of each of the two log buffers (in bytes); more than two pages
+     */
+    public SegmentedLogManager(String logDir, int segmentSize, int bufferSize) {
+        if (segmentSize < MAX_RECORD_SPACE || bufferSize < 2 * MAX_RECORD_SPACE) {
+            throw new IllegalArgumentException("log segments must hold a record of a page, and log buffers " +
+                                               "two such records");
+        }
+        this.logDir = logDir;
+        this.segmentSize = segmentSize;
+        File dir = new File(logDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new PageException("could not initialize log - could not make directory");
+        }
+        if (!dir.isDirectory()) {
+            throw new PageException("could not initialize log - directory is a file");
+        }
+        this.appendBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.spareBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.appendStart = this.findEndOfLog(dir);
+        this.flushedLSN = this.appendStart - 1;
+    }
+
+    /**
+     * Finds the end of the log (the LSN after the last valid record), by reading the
+     * records of the last segment, and zeroes the rest of the segment.
+     */
+    private long findEndOfLog(File dir) {
+        long lastSegment = -1;
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (!name.endsWith(".log")) {
+                continue;
+            }
+            try {
+                lastSegment = Math.max(lastSegment, Long.parseLong(name.substring(0, name.length() - 4)));
+            } catch (NumberFormatException e) {
+                // not a segment file
+            }
+        }
+        if (lastSegment < 0) {
+            return 0;
+        }
+        long LSN = lastSegment * segmentSize;
+        long segmentEnd = LSN + segmentSize;
+        while (LSN < segmentEnd) {
+            byte[] bytes = this.readFromSegment(LSN, segmentEnd - LSN);
+            Optional<LogRecord> record = parseRecord(LSN, bytes);
+            if (!record.isPresent()) {
+                break;
+            }
+            LSN += recordSpace(record.get());
+        }
+        try {
+            // truncating and extending the file zeroes the rest of the segment
+            FileChannel segment = this.getSegment(lastSegment);
+            segment.truncate(LSN - lastSegment * segmentSize);
+            segment.write(ByteBuffer.allocate(1), segmentSize - 1);
+            segment.force(true);
+        } catch (IOException e) {
+            throw new PageException("could not initialize log: " + e.getMessage());
+        }
+        return LSN;
+    }
+
+    /**
+     * @param record log record
+     * @return space taken by the record and its checksum in the log (in bytes)
+     */
+    private static int recordSpace(LogRecord record) {
+        return RECORD_HEADER_SIZE + record.toBytes().length;
+    }
+
+    /**
+     * @param LSN LSN of a record
+     * @param bytes bytes of the record
+     * @return the record's checksum
+     */
+    private static int checksum(long LSN, byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(LSN).array());
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @param LSN LSN of a record
+     * @param bytes bytes of the record
+     * @return the record as stored in the log: its checksum, followed by its bytes
+     */
+    private static byte[] withChecksum(long LSN, byte[] bytes) {
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length)
+               .putInt(checksum(LSN, bytes))
+               .put(bytes)
+               .array();
+    }
+
+    @Override
+    public void rewriteMasterRecord(MasterLogRecord record) {
+        byte[] bytes = withChecksum(0, record.toBytes());
+        synchronized (flushLock) {
+            synchronized (this) {
+                if (this.appendStart == 0) {
+                    // the master record has not been written out yet
+                    ByteBuffer buf = this.appendBuffer.duplicate();
+                    buf.position(0);
+                    buf.put(bytes);
+                    return;
+                }
+            }
+            // no flush is in progress while we hold the flush lock
+            try {
+                FileChannel segment = this.getSegment(0);
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining()) {
+                    segment.write(buf, buf.position());
+                }
+                segment.force(false);
+            } catch (IOException e) {
+                throw new PageException("could not write master record: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public long appendToLog(LogRecord record) {
+        byte[] bytes = record.toBytes();
+        if (bytes.length > DiskSpaceManager.PAGE_SIZE) {
+            throw new IllegalArgumentException("log record longer than a page");
+        }
+        int space = RECORD_HEADER_SIZE + bytes.length;
+        while (true) {
+            long end;
+            synchronized (this) {
+                end = this.appendStart + this.appendBuffer.position();
+                int segmentOffset = (int) (end % segmentSize);
+                int padding = segmentOffset + space > segmentSize ? segmentSize - segmentOffset : 0;
+                if (padding + space <= this.appendBuffer.remaining()) {
+                    this.appendBuffer.put(new byte[padding]);
+                    long LSN = end + padding;
+                    this.appendBuffer.putInt(checksum(LSN, bytes));
+                    this.appendBuffer.put(bytes);
+                    record.LSN = LSN;
+                    return LSN;
+                }
+            }
+            // log buffer is full - write it out, which frees up the other buffer
+            this.flushToLSN(end - 1);
+        }
+    }
+
+    @Override
+    public LogRecord fetchLogRecord(long LSN) {
+        Optional<LogRecord> record = parseRecord(LSN, this.readRecordBytes(LSN));
+        record.ifPresent((LogRecord e) -> e.setLSN(LSN));
+        return record.orElse(null);
+    }
+
+    /**
+     * Reads the bytes of the log starting at LSN, from the log buffers or the segment files,
+     * up to the maximum space taken by a record (or the end of the segment or log, if
+     * sooner).
+     *
+     * @param LSN LSN to start reading at
+     * @return bytes starting at LSN, or an empty array if LSN is not in the log
+     */
+    private byte[] readRecordBytes(long LSN) {
+        synchronized (this) {
+            long end = this.appendStart + this.appendBuffer.position();
+            if (LSN < 0 || LSN >= end) {
+                return new byte[0];
+            }
+            if (LSN >= this.appendStart) {
+                return copyRecordBytes(this.appendBuffer, (int) (LSN - this.appendStart),
+                                       (int) (end - LSN));
+            }
+            if (this.writeBuffer != null && LSN >= this.writeStart) {
+                return copyRecordBytes(this.writeBuffer, (int) (LSN - this.writeStart),
+                                       (int) (this.appendStart - LSN));
+            }
+        }
+        // the record has been written out
+        return this.readFromSegment(LSN, this.flushedLSN + 1 - LSN);
+    }
+
+    /**
+     * @param buf log buffer
+     * @param offset offset in the buffer to start reading at
+     * @param available number of bytes of records in the buffer after offset
+     * @return bytes read
+     */
+    private static byte[] copyRecordBytes(ByteBuffer buf, int offset, int available) {
+        byte[] bytes = new byte[Math.min(available, MAX_RECORD_SPACE)];
+        ByteBuffer src = buf.duplicate();
+        src.limit(offset + bytes.length);
+        src.position(offset);
+        src.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the bytes of a segment file starting at LSN, up to the maximum space taken by a
+     * record (or the end of the segment, or the given number of bytes, if sooner).
+     *
+     * @param LSN LSN to start reading at
+     * @param available maximum number of bytes to read
+     * @return bytes read
+     */
+    private byte[] readFromSegment(long LSN, long available) {
+        int offset = (int) (LSN % segmentSize);
+        int length = (int) Math.min(Math.min(available, MAX_RECORD_SPACE), segmentSize - offset);
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try {
+            FileChannel segment = this.getSegment(LSN / segmentSize);
+            while (buf.hasRemaining()) {
+                if (segment.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read log: " + e.getMessage());
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /**
+     * @param LSN LSN of the record
+     * @param bytes bytes starting at the start of the record's checksum
+     * @return the record, or nothing if there is no (complete, valid) record
+     */
+    private static Optional<LogRecord> parseRecord(long LSN, byte[] bytes) {
+        Buffer buf = edu.berkeley.cs186.database.common.ByteBuffer.wrap(bytes);
+        Optional<LogRecord> record;
+        try {
+            int checksum = buf.getInt();
+            record = LogRecord.fromBytes(buf);
+            if (record.isPresent() && checksum(LSN, record.get().toBytes()) != checksum) {
+                // stale bytes, or a record that was only partly written before a crash
+                return Optional.empty();
+            }
+        } catch (RuntimeException e) {
+            // end of the log, or bytes that do not even parse as a record
+            return Optional.empty();
+        }
+        return record;
+    }
+
+    /**
+     * Flushes the log up to and including the record specified by the LSN, along with
+     * every other record appended so far.
+     *
+     * @param LSN LSN up to which the log should be flushed
+     */
+    @Override
+    public void flushToLSN(long LSN) {
+        if (LSN <= this.flushedLSN) {
+            return;
+        }
+        synchronized (flushLock) {
+            // another thread may have flushed the log while we waited for the lock
+            if (LSN <= this.flushedLSN) {
+                return;
+            }
+            ByteBuffer buf;
+            long start;
+            synchronized (this) {
+                buf = this.writeBuffer;
+                start = this.writeStart;
+            }
+            if (buf != null) {
+                // an earlier write failed; nothing after it can be written until it succeeds
+                this.writeOut(buf, start);
+                if (LSN <= this.flushedLSN) {
+                    return;
+                }
+            }
+            synchronized (this) {
+                if (this.appendBuffer.position() == 0) {
+                    return;
+                }
+                buf = this.appendBuffer;
+                start = this.appendStart;
+                this.writeBuffer = buf;
+                this.writeStart = start;
+                this.appendBuffer = this.spareBuffer;
+                this.appendStart = start + buf.position();
+                this.spareBuffer = null;
+            }
+            this.writeOut(buf, start);
+        }
+    }
+
+    /**
+     * Writes out the write buffer, and makes it the spare buffer once written. If the
+     * write fails, the buffer stays the write buffer (so its records can still be read,
+     * and the write is retried by the next flush), and there is no spare buffer until
+     * then: appends fail once the append buffer fills up, instead of leaving a gap in
+     * the log. Assumes that flushLock is held.
+     *
+     * @param buf write buffer
+     * @param start LSN of the first byte of the buffer
+     */
+    private void writeOut(ByteBuffer buf, long start) {
+        ByteBuffer src = buf.duplicate();
+        src.flip();
+        long end = start + src.remaining();
+        this.write(start, src);
+        this.flushedLSN = end - 1;
+        synchronized (this) {
+            buf.clear();
+            this.writeBuffer = null;
+            this.spareBuffer = buf;
+        }
+    }
+
+    /**
+     * Writes records to the segment files and forces them to disk. Each segment is forced
+     * before the next one is written, so that only the last segment can be left partly
+     * written by a crash.
+     *
+     * @param start LSN of the first byte
+     * @param src bytes to write
+     */
+    private void write(long start, ByteBuffer src) {
+        try {
+            while (src.hasRemaining()) {
+                int offset = (int) (start % segmentSize);
+                int length = Math.min(src.remaining(), segmentSize - offset);
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + length);
+                FileChannel segment = this.getSegment(start / segmentSize);
+                while (part.hasRemaining()) {
+                    segment.write(part, offset + (part.position() - src.position()));
+                }
+                segment.force(false);
+                src.position(src.position() + length);
+                start += length;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not write log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens a segment file, creating it (at its full size) if it does not exist.
+     *
+     * @param segmentNum segment number
+     * @return segment file
+     */
+    private FileChannel getSegment(long segmentNum) throws IOException {
+        synchronized (this.segments) {
+            FileChannel segment = this.segments.get(segmentNum);
+            if (segment == null) {
+                segment = FileChannel.open(Paths.get(this.logDir, segmentNum + ".log"), StandardOpenOption.CREATE,
+                                           StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (segment.size() < segmentSize) {
+                    segment.write(ByteBuffer.allocate(1), segmentSize - 1);
+                }
+                this.segments.put(segmentNum, segment);
+            }
+            return segment;
+        }
+    }
+
+    @Override
+    public long getFlushedLSN() {
+        return this.flushedLSN;
+    }
+
+    @Override
+    public synchronized long getBytesAppended() {
+        // LSNs are byte offsets, so the end of the log counts every byte appended
+        return this.appendStart + this.appendBuffer.position();
+    }
+
+    @Override
+    public Iterator<LogRecord> scanFrom(long LSN) {
+        return new LogIterator(LSN);
+    }
+
+    @Override
+    public void close() {
+        long end;
+        synchronized (this) {
+            end = this.appendStart + this.appendBuffer.position();
+        }
+        this.flushToLSN(end - 1);
+        synchronized (this.segments) {
+            for (FileChannel segment : this.segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    throw new PageException("could not close log: " + e.getMessage());
+                }
+            }
+            this.segments.clear();
+        }
+    }
+
+    /**
+     * Iterator over the records of the log from a given LSN, skipping the empty space at the
+     * end of segments.
+     */
+    private class LogIterator implements Iterator<LogRecord> {
+        private long nextLSN;
+        private LogRecord next;
+
+        private LogIterator(long startLSN) {
+            this.nextLSN = startLSN;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null) {
+                long end;
+                synchronized (SegmentedLogManager.this) {
+                    end = appendStart + appendBuffer.position();
+                }
+                if (this.nextLSN >= end) {
+                    return false;
+                }
+                this.next = fetchLogRecord(this.nextLSN);
+                if (this.next != null) {
+                    this.nextLSN += recordSpace(this.next);
+                } else {
+                    this.nextLSN = (this.nextLSN / segmentSize + 1) * segmentSize;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public LogRecord next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LogRecord record = this.next;
+            this.next = null;
+            return record;
+        }
+    }
+}
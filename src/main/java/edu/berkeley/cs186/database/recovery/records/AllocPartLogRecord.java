@@ -17,12 +17,21 @@ import java.util.Optional;
 public class AllocPartLogRecord extends LogRecord {
     private long transNum;
     private int partNum;
+    // where the partition is placed, so that it can be recreated in the same place
+    private int tablespace;
+    private boolean compressed;
     private long prevLSN;
 
     public AllocPartLogRecord(long transNum, int partNum, long prevLSN) {
+        this(transNum, partNum, DiskSpaceManager.ANY_TABLESPACE, false, prevLSN);
+    }
+
+    public AllocPartLogRecord(long transNum, int partNum, int tablespace, boolean compressed, long prevLSN) {
         super(LogType.ALLOC_PART);
         this.transNum = transNum;
         this.partNum = partNum;
+        this.tablespace = tablespace;
+        this.compressed = compressed;
         this.prevLSN = prevLSN;
     }
 
@@ -61,7 +70,7 @@ public class AllocPartLogRecord extends LogRecord {
         super.redo(rm, dsm, bm);
 
         try {
-            dsm.allocPart(partNum);
+            dsm.allocPart(partNum, tablespace, compressed);
         } catch (IllegalStateException e) {
             /* do nothing - partition already exists */
         }
@@ -69,11 +78,13 @@ public class AllocPartLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES];
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Integer.BYTES + 1 + Long.BYTES];
         ByteBuffer.wrap(b)
         .put((byte) getType().getValue())
         .putLong(transNum)
         .putInt(partNum)
+        .putInt(tablespace)
+        .put((byte) (compressed ? 1 : 0))
         .putLong(prevLSN);
         return b;
     }
@@ -81,8 +92,10 @@ public class AllocPartLogRecord extends LogRecord {
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         long transNum = buf.getLong();
         int partNum = buf.getInt();
+        int tablespace = buf.getInt();
+        boolean compressed = buf.get() != 0;
         long prevLSN = buf.getLong();
-        return Optional.of(new AllocPartLogRecord(transNum, partNum, prevLSN));
+        return Optional.of(new AllocPartLogRecord(transNum, partNum, tablespace, compressed, prevLSN));
     }
 
     @Override
@@ -93,12 +106,14 @@ public class AllocPartLogRecord extends LogRecord {
         AllocPartLogRecord that = (AllocPartLogRecord) o;
         return transNum == that.transNum &&
                partNum == that.partNum &&
+               tablespace == that.tablespace &&
+               compressed == that.compressed &&
                prevLSN == that.prevLSN;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN);
+        return Objects.hash(super.hashCode(), transNum, partNum, tablespace, compressed, prevLSN);
     }
 
     @Override
@@ -106,6 +121,8 @@ public class AllocPartLogRecord extends LogRecord {
         return "AllocPartLogRecord{" +
                "transNum=" + transNum +
                ", partNum=" + partNum +
+               ", tablespace=" + tablespace +
+               ", compressed=" + compressed +
                ", prevLSN=" + prevLSN +
                ", LSN=" + LSN +
                '}';
@@ -15,12 +15,21 @@ import java.util.Optional;
 public class FreePartLogRecord extends LogRecord {
     private long transNum;
     private int partNum;
+    // where the partition is placed, so that it can be recreated in the same place
+    private int tablespace;
+    private boolean compressed;
     private long prevLSN;
 
     public FreePartLogRecord(long transNum, int partNum, long prevLSN) {
+        this(transNum, partNum, DiskSpaceManager.ANY_TABLESPACE, false, prevLSN);
+    }
+
+    public FreePartLogRecord(long transNum, int partNum, int tablespace, boolean compressed, long prevLSN) {
         super(LogType.FREE_PART);
         this.transNum = transNum;
         this.partNum = partNum;
+        this.tablespace = tablespace;
+        this.compressed = compressed;
         this.prevLSN = prevLSN;
     }
 
@@ -51,7 +60,7 @@ public class FreePartLogRecord extends LogRecord {
 
     @Override
     public LogRecord undo(long lastLSN) {
-        return new UndoFreePartLogRecord(transNum, partNum, lastLSN, prevLSN);
+        return new UndoFreePartLogRecord(transNum, partNum, tablespace, compressed, lastLSN, prevLSN);
     }
 
     @Override
@@ -67,11 +76,13 @@ public class FreePartLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES];
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Integer.BYTES + 1 + Long.BYTES];
         ByteBuffer.wrap(b)
         .put((byte) getType().getValue())
         .putLong(transNum)
         .putInt(partNum)
+        .putInt(tablespace)
+        .put((byte) (compressed ? 1 : 0))
         .putLong(prevLSN);
         return b;
     }
@@ -79,8 +90,10 @@ public class FreePartLogRecord extends LogRecord {
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         long transNum = buf.getLong();
         int partNum = buf.getInt();
+        int tablespace = buf.getInt();
+        boolean compressed = buf.get() != 0;
         long prevLSN = buf.getLong();
-        return Optional.of(new FreePartLogRecord(transNum, partNum, prevLSN));
+        return Optional.of(new FreePartLogRecord(transNum, partNum, tablespace, compressed, prevLSN));
     }
 
     @Override
@@ -91,12 +104,14 @@ public class FreePartLogRecord extends LogRecord {
         FreePartLogRecord that = (FreePartLogRecord) o;
         return transNum == that.transNum &&
                partNum == that.partNum &&
+               tablespace == that.tablespace &&
+               compressed == that.compressed &&
                prevLSN == that.prevLSN;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN);
+        return Objects.hash(super.hashCode(), transNum, partNum, tablespace, compressed, prevLSN);
     }
 
     @Override
@@ -104,6 +119,8 @@ public class FreePartLogRecord extends LogRecord {
         return "FreePartLogRecord{" +
                "transNum=" + transNum +
                ", partNum=" + partNum +
+               ", tablespace=" + tablespace +
+               ", compressed=" + compressed +
                ", prevLSN=" + prevLSN +
                ", LSN=" + LSN +
                '}';
@@ -14,13 +14,23 @@ import java.util.Optional;
 public class UndoFreePartLogRecord extends LogRecord {
     private long transNum;
     private int partNum;
+    // where the partition is placed, so that it can be recreated in the same place
+    private int tablespace;
+    private boolean compressed;
     private long prevLSN;
     private long undoNextLSN;
 
     public UndoFreePartLogRecord(long transNum, int partNum, long prevLSN, long undoNextLSN) {
+        this(transNum, partNum, DiskSpaceManager.ANY_TABLESPACE, false, prevLSN, undoNextLSN);
+    }
+
+    public UndoFreePartLogRecord(long transNum, int partNum, int tablespace, boolean compressed,
+                                 long prevLSN, long undoNextLSN) {
         super(LogType.UNDO_FREE_PART);
         this.transNum = transNum;
         this.partNum = partNum;
+        this.tablespace = tablespace;
+        this.compressed = compressed;
         this.prevLSN = prevLSN;
         this.undoNextLSN = undoNextLSN;
     }
@@ -57,7 +67,7 @@ public class UndoFreePartLogRecord extends LogRecord {
         rm.flushToLSN(getLSN());
         super.redo(rm, dsm, bm);
         try {
-            dsm.allocPart(partNum);
+            dsm.allocPart(partNum, tablespace, compressed);
         } catch (IllegalStateException e) {
             /* do nothing - partition already exists */
         }
@@ -65,11 +75,13 @@ public class UndoFreePartLogRecord extends LogRecord {
 
     @Override
     public byte[] toBytes() {
-        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES];
+        byte[] b = new byte[1 + Long.BYTES + Integer.BYTES + Integer.BYTES + 1 + Long.BYTES + Long.BYTES];
         ByteBuffer.wrap(b)
         .put((byte) getType().getValue())
         .putLong(transNum)
         .putInt(partNum)
+        .putInt(tablespace)
+        .put((byte) (compressed ? 1 : 0))
         .putLong(prevLSN)
         .putLong(undoNextLSN);
         return b;
@@ -78,9 +90,12 @@ public class UndoFreePartLogRecord extends LogRecord {
     public static Optional<LogRecord> fromBytes(Buffer buf) {
         long transNum = buf.getLong();
         int partNum = buf.getInt();
+        int tablespace = buf.getInt();
+        boolean compressed = buf.get() != 0;
         long prevLSN = buf.getLong();
         long undoNextLSN = buf.getLong();
-        return Optional.of(new UndoFreePartLogRecord(transNum, partNum, prevLSN, undoNextLSN));
+        return Optional.of(new UndoFreePartLogRecord(transNum, partNum, tablespace, compressed, prevLSN,
+                           undoNextLSN));
     }
 
     @Override
@@ -91,13 +106,15 @@ public class UndoFreePartLogRecord extends LogRecord {
         UndoFreePartLogRecord that = (UndoFreePartLogRecord) o;
         return transNum == that.transNum &&
                partNum == that.partNum &&
+               tablespace == that.tablespace &&
+               compressed == that.compressed &&
                prevLSN == that.prevLSN &&
                undoNextLSN == that.undoNextLSN;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), transNum, partNum, prevLSN, undoNextLSN);
+        return Objects.hash(super.hashCode(), transNum, partNum, tablespace, compressed, prevLSN, undoNextLSN);
     }
 
     @Override
@@ -105,6 +122,8 @@ public class UndoFreePartLogRecord extends LogRecord {
         return "UndoFreePartLogRecord{" +
                "transNum=" + transNum +
                ", partNum=" + partNum +
+               ", tablespace=" + tablespace +
+               ", compressed=" + compressed +
                ", prevLSN=" + prevLSN +
                ", undoNextLSN=" + undoNextLSN +
                ", LSN=" + LSN +
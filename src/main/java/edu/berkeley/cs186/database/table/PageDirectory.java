@@ -11,9 +11,11 @@ import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -73,6 +75,11 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // page directory id
     private int pageDirectoryId;
 
+    // access strategy used to load data pages, or null to choose automatically: scans
+    // over heap files larger than a quarter of the buffer use a fresh access strategy,
+    // and everything else uses normal replacement
+    private BufferAccessStrategy accessStrategy;
+
     /**
      * Creates a new heap file, or loads existing file if one already
      * exists at partNum.
@@ -100,6 +107,15 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
+    /**
+     * Sets the access strategy used to load data pages, both when adding records and
+     * when scanning, e.g. for temporary tables that are written and read in bulk.
+     * @param accessStrategy access strategy, or null to choose automatically
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        this.accessStrategy = accessStrategy;
+    }
+
     public Page getPage(long pageNum) {
         return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
     }
@@ -146,7 +162,12 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        BufferAccessStrategy strategy = this.accessStrategy;
+        if (strategy == null && this.getNumDataPages() > bufferManager.getBufferSize() / 4) {
+            // a large scan recycles a ring of frames, rather than flushing the buffer
+            strategy = new BufferAccessStrategy();
+        }
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(strategy));
     }
 
     public int getNumDataPages() {
@@ -332,13 +353,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         b.position(b.position() - DataPageEntry.SIZE);
                         dpe.toBytes(b);
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
+                        return bufferManager.fetchPage(lockContext, dpe.pageNum, accessStrategy);
                     }
                 }
 
                 // if we have any unused slot in this header page, allocate a new data page
                 if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
+                    Page page = bufferManager.fetchNewPage(lockContext, partNum, accessStrategy);
                     DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
                                                           (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
 
@@ -389,13 +410,26 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return new HeaderPageIterator(accessStrategy);
+        }
+
+        // iterator over the data pages managed by this header page, loaded through
+        // the given access strategy
+        private BacktrackingIterator<Page> iterator(BufferAccessStrategy strategy) {
+            return new HeaderPageIterator(strategy);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            // slot index up to which data pages have been prefetched (exclusive)
+            private int readAheadIndex;
+            // access strategy to load data pages through (may be null)
+            private BufferAccessStrategy strategy;
+
+            private HeaderPageIterator(BufferAccessStrategy strategy) {
                 super(HEADER_ENTRY_COUNT);
+                this.readAheadIndex = 0;
+                this.strategy = strategy;
             }
 
             @Override
@@ -423,11 +457,34 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
+                    this.readAhead(index, b);
+                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum,
+                                        this.strategy));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
             }
+
+            // prefetches the next data pages listed in this header page, once fewer than
+            // half of the read-ahead window remains ahead of index
+            private void readAhead(int index, Buffer b) {
+                int readAheadPages = bufferManager.getReadAheadPages();
+                if (readAheadPages == 0 || this.readAheadIndex - index > readAheadPages / 2) {
+                    return;
+                }
+                int i = Math.max(this.readAheadIndex, index + 1);
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * i);
+                long[] pageNums = new long[readAheadPages];
+                int numPages = 0;
+                for (; i < HEADER_ENTRY_COUNT && numPages < readAheadPages; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    if (dpe.isValid()) {
+                        pageNums[numPages++] = dpe.pageNum;
+                    }
+                }
+                this.readAheadIndex = i;
+                bufferManager.prefetch(Arrays.copyOf(pageNums, numPages));
+            }
         }
     }
 
@@ -438,11 +495,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
+        // access strategy to load data pages through (may be null)
+        private BufferAccessStrategy strategy;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(BufferAccessStrategy strategy) {
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
+            this.strategy = strategy;
         }
 
         @Override
@@ -451,14 +511,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.iterator(this.strategy);
         }
 
         @Override
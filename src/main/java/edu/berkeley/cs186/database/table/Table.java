@@ -178,6 +178,16 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    // Reads the bit of one entry of the bitmap straight from the page, without copying
+    // out the whole bitmap.
+    private Bits.Bit getBit(Page page, int entryNum) {
+        if (bitmapSizeInBytes > 0) {
+            return Bits.getBit(page.getBuffer().get(entryNum / 8), entryNum % 8);
+        } else {
+            return Bits.Bit.ONE;
+        }
+    }
+
     private void writeBitMap(Page page, byte[] bitmap) {
         if (bitmapSizeInBytes > 0) {
             assert bitmap.length == bitmapSizeInBytes;
@@ -284,8 +294,7 @@ public class Table implements BacktrackingIterable<Record> {
         validateRecordId(rid);
         Page page = fetchPage(rid.getPageNum());
         try {
-            byte[] bitmap = getBitMap(page);
-            if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
+            if (getBit(page, rid.getEntryNum()) == Bits.Bit.ZERO) {
                 String msg = String.format("Record %s does not exist.", rid);
                 throw new DatabaseException(msg);
             }
@@ -7,7 +7,9 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -19,10 +21,18 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -306,4 +316,76 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testOptions() throws Exception {
+        File dir = tempFolder.newFolder("testOptions");
+        File extraDir = tempFolder.newFolder("testOptionsExtra");
+        Database.Options options = new Database.Options()
+                .numMemoryPages(16)
+                .numBufferInstances(2)
+                .offHeapFrames(true)
+                .dataDirs(Collections.singletonList(extraDir.getAbsolutePath()));
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+
+        this.db.close();
+        this.db = new Database(dir.getAbsolutePath(), options);
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, "table1", 1);
+            for (int i = 0; i < 100; ++i) {
+                t1.insert("table1", i, "name" + i);
+            }
+            t1.commit();
+        }
+        this.db.close();
+        assertTrue(extraDir.list().length > 0);
+
+        this.db = new Database(dir.getAbsolutePath(), options);
+        try (Transaction t2 = db.beginTransaction()) {
+            Iterator<Record> iter = t2.query("table1").execute();
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(new Record(i, "name" + i), iter.next());
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testWarmUpBufferPool() throws Exception {
+        File dir = tempFolder.newFolder("testWarmUpBufferPool");
+        Database.Options options = new Database.Options().numMemoryPages(32).warmUpBufferPool(true);
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(10));
+
+        this.db.close();
+        this.db = new Database(dir.getAbsolutePath(), options);
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, "table1");
+            for (int i = 0; i < 1000; ++i) {
+                t1.insert("table1", i, "name" + i);
+            }
+            t1.commit();
+        }
+        this.db.close();
+
+        // the pages cached on close are listed, except log pages
+        List<Long> pageNums = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(dir, "buffer-pool.dump").toPath())) {
+            pageNums.add(Long.parseLong(line));
+        }
+        assertFalse(pageNums.isEmpty());
+        for (long pageNum : pageNums) {
+            assertNotEquals(LogManager.LOG_PARTITION, DiskSpaceManager.getPartNum(pageNum));
+        }
+
+        // and are loaded back when the database is reopened
+        this.db = new Database(dir.getAbsolutePath(), options);
+        db.getBufferManager().awaitWarmUp();
+        Set<Long> loaded = new HashSet<>();
+        db.getBufferManager().iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertTrue(loaded.containsAll(pageNums));
+    }
 }
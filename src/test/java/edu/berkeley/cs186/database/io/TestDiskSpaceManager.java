@@ -9,9 +9,17 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -21,15 +29,28 @@ public class TestDiskSpaceManager {
     public TemporaryFolder tempFolder = new TemporaryFolder();
 
     private DiskSpaceManager diskSpaceManager;
-    private Path managerRoot;
+    Path managerRoot;
 
     @Before
     public void beforeEach() throws IOException {
         managerRoot = tempFolder.newFolder("dsm-test").toPath();
     }
 
-    private DiskSpaceManager getDiskSpaceManager() {
-        return new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+    DiskSpaceManager getDiskSpaceManager() {
+        return getDiskSpaceManager(false);
+    }
+
+    DiskSpaceManager getDiskSpaceManager(boolean deferSync) {
+        return getDiskSpaceManager(deferSync, DiskSpaceManagerImpl.DEFAULT_MAX_OPEN_FILES);
+    }
+
+    DiskSpaceManager getDiskSpaceManager(boolean deferSync, int maxOpenFiles) {
+        return getDiskSpaceManager(Collections.singletonList(managerRoot.toString()), managerRoot.toString(),
+                                   deferSync, maxOpenFiles);
+    }
+
+    DiskSpaceManager getDiskSpaceManager(List<String> dataDirs, String logDir, boolean deferSync, int maxOpenFiles) {
+        return new DiskSpaceManagerImpl(dataDirs, logDir, new DummyRecoveryManager(), deferSync, maxOpenFiles);
     }
 
     @Test
@@ -38,6 +59,21 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testIgnoreOtherFiles() throws IOException {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        diskSpaceManager.close();
+
+        // files that are not partitions (e.g. a saved buffer pool) are left alone
+        File other = managerRoot.resolve("buffer-pool.dump").toFile();
+        Files.write(other.toPath(), "1\n".getBytes());
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(partNum + 1, diskSpaceManager.allocPart());
+        assertTrue(other.exists());
+        diskSpaceManager.close();
+    }
+
     @Test
     public void testAllocPart() {
         diskSpaceManager = getDiskSpaceManager();
@@ -298,5 +334,403 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testReadWriteDeferSyncPersistent() {
+        diskSpaceManager = getDiskSpaceManager(true);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.sync();
+        diskSpaceManager.writePage(pageNum2, buf2);
+
+        // unsynced writes are still visible to reads
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWritePages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // the last two pages of the first header page, and the first two of the second
+        int firstPageNum = DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER - 2;
+        long firstPage = DiskSpaceManager.getVirtualPageNum(partNum, firstPageNum);
+        byte[][] bufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < 4; ++i) {
+            diskSpaceManager.allocPage(firstPage + i);
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; ++j) {
+                bufs[i][j] = (byte) ((Integer.valueOf(j).hashCode() >> (2 * i)) & 0xFF);
+            }
+        }
+        diskSpaceManager.writePages(firstPage, 4, bufs);
+
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < 4; ++i) {
+            diskSpaceManager.readPage(firstPage + i, readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[][] readbufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(firstPage, 4, readbufs);
+        for (int i = 0; i < 4; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteDirectBuffers() {
+        diskSpaceManager = getDiskSpaceManager();
+        int[] partNums = {diskSpaceManager.allocPart(), diskSpaceManager.allocCompressedPart()};
+        for (int partNum : partNums) {
+            // page-sized slices of one direct buffer, like off-heap buffer frames
+            ByteBuffer arena = ByteBuffer.allocateDirect(4 * DiskSpaceManager.PAGE_SIZE);
+            ByteBuffer[] bufs = new ByteBuffer[4];
+            byte[][] expected = new byte[4][DiskSpaceManager.PAGE_SIZE];
+            long firstPage = DiskSpaceManager.getVirtualPageNum(partNum, 0);
+            for (int i = 0; i < 4; ++i) {
+                diskSpaceManager.allocPage(firstPage + i);
+                arena.limit((i + 1) * DiskSpaceManager.PAGE_SIZE);
+                arena.position(i * DiskSpaceManager.PAGE_SIZE);
+                bufs[i] = arena.slice();
+                new Random(i).nextBytes(expected[i]);
+                bufs[i].put(expected[i]);
+                bufs[i].flip();
+            }
+            diskSpaceManager.writePages(firstPage, 3, bufs);
+            diskSpaceManager.writePage(firstPage + 3, bufs[3]);
+            assertEquals(0, bufs[0].remaining());
+            assertEquals(0, bufs[3].remaining());
+
+            byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+            ByteBuffer direct = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+            for (int i = 0; i < 4; ++i) {
+                diskSpaceManager.readPage(firstPage + i, readbuf);
+                assertArrayEquals(expected[i], readbuf);
+
+                direct.clear();
+                diskSpaceManager.readPage(firstPage + i, direct);
+                assertEquals(0, direct.remaining());
+                direct.flip();
+                direct.get(readbuf);
+                assertArrayEquals(expected[i], readbuf);
+            }
+            diskSpaceManager.freePart(partNum);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadPagesOutOfBounds() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.readPages(pageNum, 2, new byte[2][DiskSpaceManager.PAGE_SIZE]);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageExtents() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long firstPage = diskSpaceManager.allocPage(partNum);
+
+        // the OS file is extended to cover the whole extent on the first allocation:
+        // master page, header page, and EXTENT_SIZE data pages
+        File partFile = managerRoot.resolve(Integer.toString(partNum)).toFile();
+        assertTrue(partFile.length() >= (2L + DiskSpaceManagerImpl.EXTENT_SIZE) * DiskSpaceManager.PAGE_SIZE);
+
+        // consecutive allocations are contiguous
+        for (int i = 1; i < DiskSpaceManagerImpl.EXTENT_SIZE; ++i) {
+            assertEquals(firstPage + i, diskSpaceManager.allocPage(partNum));
+        }
+
+        // freed pages are reused once the current extent runs out
+        diskSpaceManager.freePage(firstPage + 5);
+        assertEquals(firstPage + 5, diskSpaceManager.allocPage(partNum));
+        assertEquals(firstPage + DiskSpaceManagerImpl.EXTENT_SIZE, diskSpaceManager.allocPage(partNum));
+
+        // explicitly allocated pages are skipped
+        diskSpaceManager.allocPage(firstPage + DiskSpaceManagerImpl.EXTENT_SIZE + 1);
+        assertEquals(firstPage + DiskSpaceManagerImpl.EXTENT_SIZE + 2, diskSpaceManager.allocPage(partNum));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageMetadataWrites() {
+        List<PartitionHandle> handles = new ArrayList<>();
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager()) {
+            @Override
+            PartitionHandle newPartitionHandle(int partNum) {
+                PartitionHandle pi = super.newPartitionHandle(partNum);
+                handles.add(pi);
+                return pi;
+            }
+        };
+        int partNum = diskSpaceManager.allocPart();
+        PartitionHandle pi = handles.get(0);
+
+        // the master and header page are written once per extent
+        long writes = pi.getNumMetadataWrites();
+        long firstPage = diskSpaceManager.allocPage(partNum);
+        assertEquals(writes + 2, pi.getNumMetadataWrites());
+        for (int i = 1; i < DiskSpaceManagerImpl.EXTENT_SIZE; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+        assertEquals(writes + 2, pi.getNumMetadataWrites());
+        diskSpaceManager.allocPage(partNum);
+        assertEquals(writes + 4, pi.getNumMetadataWrites());
+        diskSpaceManager.close();
+
+        // pages of the extent that were not handed out are freed on close
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(firstPage + DiskSpaceManagerImpl.EXTENT_SIZE + 1, diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testOpenFileLimit() {
+        diskSpaceManager = getDiskSpaceManager(false, 2);
+        long[] pageNums = new long[5];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(diskSpaceManager.allocPart());
+            Arrays.fill(bufs[i], (byte) (i + 1));
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+            assertTrue(((DiskSpaceManagerImpl) diskSpaceManager).numOpenFiles() <= 2);
+        }
+        // evicted files are reopened on access
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(bufs[i], buf);
+            assertTrue(((DiskSpaceManagerImpl) diskSpaceManager).numOpenFiles() <= 2);
+        }
+        diskSpaceManager.close();
+
+        // partitions are not opened until they are accessed
+        diskSpaceManager = getDiskSpaceManager(false, 2);
+        assertEquals(0, ((DiskSpaceManagerImpl) diskSpaceManager).numOpenFiles());
+        assertTrue(diskSpaceManager.pageAllocated(pageNums[3]));
+        assertEquals(1, ((DiskSpaceManagerImpl) diskSpaceManager).numOpenFiles());
+        for (int i = pageNums.length - 1; i >= 0; --i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(bufs[i], buf);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testTablespaces() {
+        List<String> dataDirs = Arrays.asList(managerRoot.resolve("data0").toString(),
+                                              managerRoot.resolve("data1").toString());
+        String logDir = managerRoot.resolve("log").toString();
+        diskSpaceManager = getDiskSpaceManager(dataDirs, logDir, false, DiskSpaceManagerImpl.DEFAULT_MAX_OPEN_FILES);
+        assertEquals(2, diskSpaceManager.getNumTablespaces());
+
+        // the log partition goes in the log directory, other partitions allocated by number
+        // go in the first data directory, and the rest are placed round-robin
+        diskSpaceManager.allocPart(0);
+        diskSpaceManager.allocPart(1);
+        int partNum2 = diskSpaceManager.allocPart();
+        int partNum3 = diskSpaceManager.allocPart();
+        int partNum4 = diskSpaceManager.allocPartInTablespace(1);
+        assertTrue(new File(logDir, "0").exists());
+        assertTrue(new File(dataDirs.get(0), "1").exists());
+        assertNotEquals(new File(dataDirs.get(0), Integer.toString(partNum2)).exists(),
+                        new File(dataDirs.get(0), Integer.toString(partNum3)).exists());
+        assertNotEquals(new File(dataDirs.get(1), Integer.toString(partNum2)).exists(),
+                        new File(dataDirs.get(1), Integer.toString(partNum3)).exists());
+        assertTrue(new File(dataDirs.get(1), Integer.toString(partNum4)).exists());
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 7);
+        long pageNum = diskSpaceManager.allocPage(partNum4);
+        diskSpaceManager.writePage(pageNum, buf);
+        diskSpaceManager.close();
+
+        // partitions are found wherever they are
+        diskSpaceManager = getDiskSpaceManager(dataDirs, logDir, false, DiskSpaceManagerImpl.DEFAULT_MAX_OPEN_FILES);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+        assertEquals(partNum4 + 1, diskSpaceManager.allocPart());
+
+        diskSpaceManager.freePart(partNum4);
+        assertFalse(new File(dataDirs.get(1), Integer.toString(partNum4)).exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPartByNumberInTablespace() {
+        List<String> dataDirs = Arrays.asList(managerRoot.resolve("data0").toString(),
+                                              managerRoot.resolve("data1").toString());
+        String logDir = managerRoot.resolve("log").toString();
+        diskSpaceManager = getDiskSpaceManager(dataDirs, logDir, false, DiskSpaceManagerImpl.DEFAULT_MAX_OPEN_FILES);
+
+        // partitions recreated during recovery keep their tablespace and compression
+        diskSpaceManager.allocPart(5, 1, true);
+        assertTrue(new File(dataDirs.get(1), "5").exists());
+        assertTrue(new File(dataDirs.get(1), 5 + CompressedPartitionHandle.SUFFIX).exists());
+        diskSpaceManager.allocPart(6, 1, false);
+        assertTrue(new File(dataDirs.get(1), "6").exists());
+        assertFalse(new File(dataDirs.get(1), 6 + CompressedPartitionHandle.SUFFIX).exists());
+
+        // unknown tablespaces fall back to the first data directory
+        diskSpaceManager.allocPart(7, 2, false);
+        assertTrue(new File(dataDirs.get(0), "7").exists());
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAllocPartInBadTablespace() {
+        diskSpaceManager = getDiskSpaceManager();
+        try {
+            diskSpaceManager.allocPartInTablespace(1);
+        } finally {
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testCompressedPartition() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocCompressedPart();
+        File pageFile = managerRoot.resolve(partNum + CompressedPartitionHandle.SUFFIX).toFile();
+        assertTrue(pageFile.exists());
+
+        // mostly empty pages, like pages of padded fixed-width records
+        long[] pageNums = new long[100];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; j += 64) {
+                bufs[i][j] = (byte) (i + j);
+            }
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+        assertTrue(pageFile.length() < pageNums.length * DiskSpaceManager.PAGE_SIZE / 4);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(bufs[i], buf);
+        }
+
+        // incompressible pages, rewritten enough to compact the page file
+        Random random = new Random(186);
+        for (int i = 0; i < 500; ++i) {
+            random.nextBytes(bufs[i % 2]);
+            diskSpaceManager.writePage(pageNums[i % 2], bufs[i % 2]);
+        }
+        assertTrue(pageFile.length() < 300 * DiskSpaceManager.PAGE_SIZE);
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(bufs[i], buf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        assertFalse(pageFile.exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentReadWrite() throws InterruptedException {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(i % 2 == 0 ? partNum1 : partNum2);
+        }
+
+        // each thread repeatedly writes and reads back its own page
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[pageNums.length];
+        for (int i = 0; i < threads.length; ++i) {
+            long pageNum = pageNums[i];
+            threads[i] = new Thread(() -> {
+                byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+                try {
+                    for (int j = 0; j < 50; ++j) {
+                        Arrays.fill(buf, (byte) (pageNum + j));
+                        diskSpaceManager.writePage(pageNum, buf);
+                        assertTrue(diskSpaceManager.pageAllocated(pageNum));
+                        diskSpaceManager.readPage(pageNum, readbuf);
+                        assertArrayEquals(buf, readbuf);
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        diskSpaceManager.freePart(partNum1);
+        diskSpaceManager.freePart(partNum2);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testDeferSyncForcesAllocations() {
+        List<PartitionHandle> handles = new ArrayList<>();
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true) {
+            @Override
+            PartitionHandle newPartitionHandle(int partNum) {
+                PartitionHandle pi = super.newPartitionHandle(partNum);
+                handles.add(pi);
+                return pi;
+            }
+        };
+        int partNum = diskSpaceManager.allocPart();
+        PartitionHandle pi = handles.get(0);
+        assertFalse(pi.hasUnsyncedMetadata());
+
+        // data page writes are deferred, but allocations are on disk once they return
+        long page1 = diskSpaceManager.allocPage(partNum);
+        assertFalse(pi.hasUnsyncedMetadata());
+        diskSpaceManager.writePage(page1, new byte[DiskSpaceManager.PAGE_SIZE]);
+        long page2 = DiskSpaceManager.getVirtualPageNum(partNum, 100);
+        diskSpaceManager.allocPage(page2);
+        assertFalse(pi.hasUnsyncedMetadata());
+        diskSpaceManager.freePage(page1);
+        assertFalse(pi.hasUnsyncedMetadata());
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+}
@@ -0,0 +1,106 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the disk space manager tests against MappedDiskSpaceManager.
+ */
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestMappedDiskSpaceManager extends TestDiskSpaceManager {
+    @Override
+    DiskSpaceManager getDiskSpaceManager(List<String> dataDirs, String logDir, boolean deferSync, int maxOpenFiles) {
+        return new MappedDiskSpaceManager(dataDirs, logDir, new DummyRecoveryManager(), deferSync, maxOpenFiles);
+    }
+
+    @Test
+    public void testChunkLayout() {
+        assertEquals(0, MappedPartitionHandle.chunkIndex(0));
+        assertEquals(0, MappedPartitionHandle.chunkIndex(MappedPartitionHandle.BASE_CHUNK_SIZE - 1));
+        assertEquals(1, MappedPartitionHandle.chunkIndex(MappedPartitionHandle.BASE_CHUNK_SIZE));
+        assertEquals(2, MappedPartitionHandle.chunkIndex(3 * MappedPartitionHandle.BASE_CHUNK_SIZE));
+        for (int i = 0; i < 20; ++i) {
+            long start = MappedPartitionHandle.chunkStart(i);
+            long size = MappedPartitionHandle.chunkSize(i);
+            assertEquals(start + size, MappedPartitionHandle.chunkStart(i + 1));
+            assertEquals(i, MappedPartitionHandle.chunkIndex(start));
+            assertEquals(i, MappedPartitionHandle.chunkIndex(start + size - 1));
+            assertTrue(size <= MappedPartitionHandle.MAX_CHUNK_SIZE);
+        }
+    }
+
+    @Test
+    public void testReadWriteAcrossChunks() {
+        DiskSpaceManager diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // page 1000 is past the end of the first (1M) chunk
+        long pageNum1 = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, 10));
+        long pageNum2 = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, 1000));
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.writePage(pageNum2, buf2);
+        diskSpaceManager.close();
+
+        // files written through mappings are readable by the regular implementation
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testForceAndCloseChunks() throws IOException {
+        MappedPartitionHandle handle = new MappedPartitionHandle(1, new DummyRecoveryManager(), true);
+        handle.open(managerRoot.resolve("1").toString());
+        handle.partitionLock.writeLock().lock();
+        try {
+            // page 1000 is past the end of the first (1M) chunk
+            int pageNum1 = handle.allocPage(0, 10);
+            int pageNum2 = handle.allocPage(0, 1000);
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            Arrays.fill(buf, (byte) 42);
+            handle.writePage(pageNum1, buf);
+            handle.writePage(pageNum2, buf);
+            assertEquals(2, handle.numMappedChunks());
+            assertEquals(2, handle.numUnforcedChunks());
+
+            // only chunks written since the last force are forced again
+            handle.sync();
+            assertEquals(0, handle.numUnforcedChunks());
+            handle.writePage(pageNum1, buf);
+            assertEquals(1, handle.numUnforcedChunks());
+
+            // closing the file unmaps every chunk, and chunks are mapped again on access
+            handle.closeFile();
+            assertEquals(0, handle.numMappedChunks());
+            handle.openFile();
+            byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+            handle.readPage(pageNum2, readbuf);
+            assertArrayEquals(buf, readbuf);
+            assertEquals(1, handle.numMappedChunks());
+        } finally {
+            handle.partitionLock.writeLock().unlock();
+        }
+        handle.close();
+    }
+}
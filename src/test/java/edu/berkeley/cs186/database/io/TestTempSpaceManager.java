@@ -0,0 +1,110 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestTempSpaceManager {
+    private MemoryDiskSpaceManager diskSpaceManager;
+    private TempSpaceManager tempSpaceManager;
+
+    @Before
+    public void beforeEach() {
+        diskSpaceManager = new MemoryDiskSpaceManager();
+        tempSpaceManager = new TempSpaceManager(diskSpaceManager, 4);
+    }
+
+    @After
+    public void afterEach() {
+        tempSpaceManager.close();
+    }
+
+    @Test
+    public void testPassThrough() {
+        int partNum = tempSpaceManager.allocPart();
+        assertFalse(TempSpaceManager.isTempPartition(partNum));
+        long pageNum = tempSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 42);
+        tempSpaceManager.writePage(pageNum, buf);
+
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+        assertEquals(0, tempSpaceManager.getNumMemoryPages());
+    }
+
+    @Test
+    public void testMemoryThenSpill() {
+        int partNum = tempSpaceManager.allocTempPart();
+        assertTrue(TempSpaceManager.isTempPartition(partNum));
+
+        long[] pageNums = new long[10];
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = tempSpaceManager.allocPage(partNum);
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, i), pageNums[i]);
+            Arrays.fill(bufs[i], (byte) i);
+            tempSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+        assertEquals(4, tempSpaceManager.getNumMemoryPages());
+        assertEquals(6, tempSpaceManager.getNumSpilledPages());
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertTrue(tempSpaceManager.pageAllocated(pageNums[i]));
+            tempSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(bufs[i], buf);
+        }
+
+        // nothing reaches the underlying disk space manager
+        try {
+            diskSpaceManager.readPage(pageNums[0], buf);
+            fail();
+        } catch (NoSuchElementException | PageException e) {
+            /* do nothing */
+        }
+
+        tempSpaceManager.freePart(partNum);
+        assertEquals(0, tempSpaceManager.getNumMemoryPages());
+        assertEquals(0, tempSpaceManager.getNumSpilledPages());
+    }
+
+    @Test
+    public void testFreePageReusesSpace() {
+        int partNum = tempSpaceManager.allocTempPart();
+        long[] pageNums = new long[6];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = tempSpaceManager.allocPage(partNum);
+        }
+        tempSpaceManager.freePage(pageNums[0]);
+        tempSpaceManager.freePage(pageNums[5]);
+        assertFalse(tempSpaceManager.pageAllocated(pageNums[0]));
+        assertEquals(3, tempSpaceManager.getNumMemoryPages());
+        assertEquals(1, tempSpaceManager.getNumSpilledPages());
+
+        // the freed memory page is used before the scratch file
+        long pageNum = tempSpaceManager.allocPage(partNum);
+        assertEquals(4, tempSpaceManager.getNumMemoryPages());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        tempSpaceManager.readPage(pageNum, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testFreedPartition() {
+        int partNum = tempSpaceManager.allocTempPart();
+        long pageNum = tempSpaceManager.allocPage(partNum);
+        tempSpaceManager.freePart(partNum);
+        tempSpaceManager.readPage(pageNum, new byte[DiskSpaceManager.PAGE_SIZE]);
+    }
+}
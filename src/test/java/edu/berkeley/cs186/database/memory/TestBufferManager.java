@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.memory;
 
 import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
@@ -12,7 +13,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -137,6 +142,113 @@ public class TestBufferManager {
                           37 + BufferManager.RESERVED_SPACE));
     }
 
+    @Test
+    public void testTypedReads() {
+        int partNum = diskSpaceManager.allocPart(1);
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        try {
+            Buffer buf = page.getBuffer();
+            buf.position(100).put((byte) -7).putShort((short) 1234).putInt(-186).putLong(1L << 40)
+                .putFloat(1.5f).putDouble(-2.25);
+
+            // typed reads go straight to the frame, and must agree with copying the bytes out
+            buf = page.getBuffer().position(100);
+            assertEquals((byte) -7, buf.get());
+            assertEquals((short) 1234, buf.getShort());
+            assertEquals(-186, buf.getInt());
+            assertEquals(1L << 40, buf.getLong());
+            assertEquals(1.5f, buf.getFloat(), 0);
+            assertEquals(-2.25, buf.getDouble(), 0);
+            assertEquals(127, buf.position());
+
+            byte[] bytes = new byte[4];
+            page.getBuffer().get(bytes, 103, 4);
+            assertEquals(-186, java.nio.ByteBuffer.wrap(bytes).getInt());
+            assertEquals(-186, page.getBuffer().position(3).slice().getInt(100));
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Test(expected = PageException.class)
+    public void testTypedReadOutOfBounds() {
+        int partNum = diskSpaceManager.allocPart(1);
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        try {
+            page.getBuffer().getLong(BufferManager.EFFECTIVE_PAGE_SIZE - 4);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Test
+    public void testFlushPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            if (i != 2) {
+                // leave page 2 clean, splitting the pages into two runs
+                page.getBuffer().position(i).put(expected);
+            }
+            page.unpin();
+            pages.add(page);
+        }
+        long numIOs = bufferManager.getNumIOs();
+        bufferManager.flushPages(pages);
+        assertEquals(numIOs + 3, bufferManager.getNumIOs());
+
+        for (int i = 0; i < 4; ++i) {
+            diskSpaceManager.readPage(pages.get(i).getPageNum(), actual);
+            byte[] written = Arrays.copyOfRange(actual, i + BufferManager.RESERVED_SPACE,
+                                                i + 4 + BufferManager.RESERVED_SPACE);
+            assertArrayEquals(i == 2 ? new byte[4] : expected, written);
+        }
+
+        // nothing left to flush
+        bufferManager.flushPages(pages);
+        assertEquals(numIOs + 3, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[4];
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            expected[BufferManager.RESERVED_SPACE] = (byte) i;
+            diskSpaceManager.writePage(pageNums[i], expected);
+        }
+
+        bufferManager.prefetch(pageNums);
+        for (int i = 0; i < 100 && bufferManager.getNumIOs() < pageNums.length; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(pageNums.length, bufferManager.getNumIOs());
+
+        // prefetched pages are already loaded
+        byte[] actual = new byte[1];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 0, (short) 1, actual);
+            frame.unpin();
+            assertEquals((byte) i, actual[0]);
+        }
+        assertEquals(pageNums.length, bufferManager.getNumIOs());
+
+        // prefetching loaded pages does nothing
+        bufferManager.prefetch(pageNums);
+        bufferManager.close();
+        assertEquals(pageNums.length, bufferManager.getNumIOs());
+    }
+
     @Test
     public void testFlushLogPage() {
         int partNum = diskSpaceManager.allocPart(0);
@@ -330,4 +442,484 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testConcurrentFetch() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            byte[] b = new byte[] {(byte) i};
+            frame.writeBytes((short) 0, (short) 1, b);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+
+        // more pages than frames, so that hits race with evictions
+        List<Throwable> errors = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    byte[] b = new byte[1];
+                    for (int j = 0; j < 2000; ++j) {
+                        int i = (j * 7 + seed) % pageNums.length;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+                        try {
+                            assertEquals(pageNums[i], frame.getPageNum());
+                            frame.readBytes((short) 0, (short) 1, b);
+                            assertEquals((byte) i, b[0]);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<>(), errors);
+    }
+
+    /**
+     * Reads a couple of hot pages from many threads at once (with the occasional read of
+     * a cold page, so that pages are evicted as well), under every eviction policy, and
+     * checks that the policy still knows about every loaded frame, exactly once.
+     */
+    @Test
+    public void testConcurrentHits() throws InterruptedException {
+        EvictionPolicy[] policies = new EvictionPolicy[] {new LRUEvictionPolicy(), new ClockEvictionPolicy(),
+            new TwoQueueEvictionPolicy(), new LRU2EvictionPolicy(), new ARCEvictionPolicy()};
+        // the log partition, whose pages getResidentPages does not list
+        diskSpaceManager.allocPart(0);
+        for (EvictionPolicy policy : policies) {
+            BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                    policy);
+            int partNum = diskSpaceManager.allocPart();
+            long[] pageNums = new long[24];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+                frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+                frame.unpin();
+                pageNums[i] = frame.getPageNum();
+            }
+
+            List<Throwable> errors = new ArrayList<>();
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; ++t) {
+                int seed = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        byte[] b = new byte[1];
+                        for (int j = 0; j < 5000; ++j) {
+                            int i = j % 8 == 0 ? (j / 8 + seed) % pageNums.length : j % 2;
+                            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+                            try {
+                                for (int k = 0; k < 4; ++k) {
+                                    frame.readBytes((short) 0, (short) 1, b);
+                                    assertEquals((byte) i, b[0]);
+                                }
+                            } finally {
+                                frame.unpin();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                // a corrupted policy can leave threads looking for a frame to evict forever
+                thread.join(30000);
+                assertFalse(policy.getClass().getSimpleName(), thread.isAlive());
+            }
+            assertEquals(new ArrayList<>(), errors);
+
+            List<Long> ordered = new ArrayList<>();
+            for (BufferFrame frame : bufferManager.evictionOrder()) {
+                if (frame.isValid()) {
+                    ordered.add(frame.getPageNum());
+                }
+            }
+            List<Long> resident = bufferManager.getResidentPages();
+            assertEquals(policy.getClass().getSimpleName(), resident.size(), ordered.size());
+            assertEquals(policy.getClass().getSimpleName(), new HashSet<>(resident), new HashSet<>(ordered));
+            bufferManager.close();
+        }
+    }
+
+    @Test
+    public void testSharedPins() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) 42});
+        long pageNum = frame.getPageNum();
+
+        // while this thread keeps the page pinned, another thread can pin and read it
+        byte[] b = new byte[1];
+        Thread reader = new Thread(() -> {
+            BufferFrame other = bufferManager.fetchPageFrame(pageNum);
+            try {
+                other.readBytes((short) 0, (short) 1, b);
+            } finally {
+                other.unpin();
+            }
+        });
+        reader.start();
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertEquals((byte) 42, b[0]);
+
+        // the page cannot be evicted until both pins are released
+        assertTrue(frame.isPinned());
+        bufferManager.evict(pageNum);
+        assertTrue(frame.isValid());
+        frame.unpin();
+        bufferManager.evict(pageNum);
+        assertFalse(frame.isValid());
+    }
+
+    @Test
+    public void testWarmUp() {
+        int logPartNum = diskSpaceManager.allocPart(0);
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        BufferFrame logFrame = bufferManager.fetchNewPageFrame(logPartNum);
+        logFrame.unpin();
+        // four of pages 3 to 7 are loaded, along with a log page, which is not listed; page 7
+        // was used most recently
+        List<Long> resident = bufferManager.getResidentPages();
+        assertEquals(4, resident.size());
+        assertFalse(resident.contains(logFrame.getPageNum()));
+        assertEquals(pageNums[7], (long) resident.get(0));
+        bufferManager.evictAll();
+
+        BufferManager restarted = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy(), 2);
+        try {
+            restarted.startWarmUp(resident);
+            restarted.awaitWarmUp();
+            // only as many pages as fit were loaded, hottest first
+            List<Long> loaded = new ArrayList<>();
+            restarted.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+            assertTrue(loaded.size() <= 4);
+            assertTrue(loaded.contains(pageNums[7]));
+            assertFalse(loaded.contains(pageNums[3]));
+
+            long numIOs = restarted.getNumIOs();
+            BufferFrame frame = restarted.fetchPageFrame(pageNums[7]);
+            byte[] b = new byte[1];
+            frame.readBytes((short) 0, (short) 1, b);
+            frame.unpin();
+            assertEquals((byte) 7, b[0]);
+            assertEquals(numIOs, restarted.getNumIOs());
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void testPartitionedInstances() {
+        BufferManager partitioned = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                new ClockEvictionPolicy(), 4);
+        try {
+            assertEquals(4, partitioned.getNumInstances());
+            int partNum1 = diskSpaceManager.allocPart(1);
+            int partNum2 = diskSpaceManager.allocPart(2);
+
+            // more pages than fit in the whole buffer
+            long[] pageNums = new long[20];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = partitioned.fetchNewPageFrame(i % 2 == 0 ? partNum1 : partNum2);
+                frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+                frame.unpin();
+                pageNums[i] = frame.getPageNum();
+            }
+
+            List<Long> loaded = new ArrayList<>();
+            partitioned.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+            assertTrue(loaded.size() <= 8);
+
+            byte[] b = new byte[1];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = partitioned.fetchPageFrame(pageNums[i]);
+                frame.readBytes((short) 0, (short) 1, b);
+                frame.unpin();
+                assertEquals((byte) i, b[0]);
+            }
+
+            partitioned.freePart(partNum1);
+            List<Long> remaining = new ArrayList<>();
+            partitioned.iterPageNums((pageNum, dirty) -> remaining.add(pageNum));
+            for (long pageNum : remaining) {
+                assertEquals(partNum2, DiskSpaceManager.getPartNum(pageNum));
+            }
+
+            partitioned.evictAll();
+            List<Long> afterEvict = new ArrayList<>();
+            partitioned.iterPageNums((pageNum, dirty) -> afterEvict.add(pageNum));
+            assertEquals(new ArrayList<>(), afterEvict);
+            assertTrue(partitioned.getNumIOs() > 0);
+        } finally {
+            partitioned.close();
+        }
+    }
+
+    @Test
+    public void testOffHeapFrames() {
+        BufferManager offHeap = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy(), 2, true);
+        try {
+            assertTrue(offHeap.isOffHeap());
+            int partNum = diskSpaceManager.allocPart(1);
+
+            // more pages than fit in the buffer, so that pages are written out and read back
+            long[] pageNums = new long[10];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = offHeap.fetchNewPageFrame(partNum);
+                frame.writeBytes((short) 10, (short) 3, new byte[] {(byte) i, (byte) (i + 1), (byte) (i + 2)});
+                frame.unpin();
+                pageNums[i] = frame.getPageNum();
+            }
+
+            byte[] b = new byte[3];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = offHeap.fetchPageFrame(pageNums[i]);
+                frame.readBytes((short) 10, (short) 3, b);
+                frame.unpin();
+                assertArrayEquals(new byte[] {(byte) i, (byte) (i + 1), (byte) (i + 2)}, b);
+            }
+
+            // pages flushed from off-heap frames are on disk
+            offHeap.evictAll();
+            byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+            for (int i = 0; i < pageNums.length; ++i) {
+                diskSpaceManager.readPage(pageNums[i], page);
+                assertEquals((byte) i, page[BufferManager.RESERVED_SPACE + 10]);
+            }
+        } finally {
+            offHeap.close();
+        }
+    }
+
+    @Test
+    public void testResize() {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame[] frames = new BufferFrame[8];
+        for (int i = 0; i < 4; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frames[i].unpin();
+        }
+
+        // growing adds free frames, so that more pages fit without evicting any
+        assertEquals(8, bufferManager.resize(8));
+        assertEquals(8, bufferManager.getBufferSize());
+        for (int i = 4; i < 8; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+            frames[i].unpin();
+        }
+        for (BufferFrame frame : frames) {
+            assertTrue(frame.isValid());
+        }
+
+        // shrinking evicts pages in the released frames, and stops at a pinned frame
+        frames[5].pin();
+        assertEquals(6, bufferManager.resize(3));
+        assertTrue(frames[5].isValid());
+        assertFalse(frames[6].isValid());
+        assertFalse(frames[7].isValid());
+        frames[5].unpin();
+        assertEquals(3, bufferManager.resize(3));
+        assertFalse(frames[5].isValid());
+
+        // evicted pages were written out, and can be loaded into the smaller buffer
+        for (int i = 0; i < frames.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(frames[i].getPageNum());
+            byte[] b = new byte[1];
+            frame.readBytes((short) 0, (short) 1, b);
+            frame.unpin();
+            assertEquals((byte) i, b[0]);
+        }
+        List<Long> loaded = new ArrayList<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertEquals(3, loaded.size());
+    }
+
+    @Test
+    public void testResizePartitioned() {
+        BufferManager partitioned = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy(), 2);
+        try {
+            assertEquals(9, partitioned.resize(9));
+            assertEquals(9, partitioned.getBufferSize());
+            assertEquals(2, partitioned.resize(2));
+            assertEquals(2, partitioned.getBufferSize());
+        } finally {
+            partitioned.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResizeBelowInstances() {
+        BufferManager partitioned = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy(), 2);
+        try {
+            partitioned.resize(1);
+        } finally {
+            partitioned.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyInstances() {
+        new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 2, new ClockEvictionPolicy(), 3);
+    }
+
+    @Test
+    public void testPageCleaner() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame[] frames = new BufferFrame[5];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].writeBytes((short) 0, (short) 1, new byte[] {(byte) (i + 1)});
+        }
+        // keep one dirty page pinned; the cleaner must not write it
+        for (int i = 1; i < frames.length; ++i) {
+            frames[i].unpin();
+        }
+
+        bufferManager.startPageCleaner(1, 2, 0.2, 0.6);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.getNumCleanerWrites() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        bufferManager.stopPageCleaner();
+        assertEquals(4, bufferManager.getNumCleanerWrites());
+
+        List<Long> dirtyPages = new ArrayList<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> {
+            if (dirty) {
+                dirtyPages.add(pageNum);
+            }
+        });
+        assertEquals(Arrays.asList(frames[0].getPageNum()), dirtyPages);
+
+        // written pages are on disk
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(frames[1].getPageNum(), buf);
+        assertEquals((byte) 2, buf[BufferManager.RESERVED_SPACE]);
+        frames[0].unpin();
+    }
+
+    @Test
+    public void testPageCleanerSurvivesFailures() throws InterruptedException {
+        bufferManager.close();
+        diskSpaceManager.close();
+        AtomicInteger failures = new AtomicInteger(1);
+        diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePage(long page, byte[] buf) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new RuntimeException("injected write failure");
+                }
+                super.writePage(page, buf);
+            }
+        };
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new ClockEvictionPolicy());
+
+        int partNum = diskSpaceManager.allocPart(1);
+        for (int i = 0; i < 4; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] {(byte) (i + 1)});
+            frame.unpin();
+        }
+
+        // the first write fails, but the cleaner keeps running and writes every page
+        bufferManager.startPageCleaner(1, 2, 0.2, 0.6);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.getNumCleanerWrites() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        bufferManager.stopPageCleaner();
+        assertTrue(failures.get() < 0);
+        assertEquals(3, bufferManager.getNumCleanerWrites());
+    }
+
+    @Test
+    public void testWriteBytesShared() {
+        int logPartNum = diskSpaceManager.allocPart(0);
+        BufferFrame logFrame = bufferManager.fetchNewPageFrame(logPartNum);
+        logFrame.writeBytesShared((short) 0, (short) 2, new byte[] {1, 2});
+        logFrame.writeBytesShared((short) 2, (short) 1, new byte[] {3});
+        byte[] buf = new byte[3];
+        logFrame.readBytes((short) 0, (short) 3, buf);
+        assertArrayEquals(new byte[] {1, 2, 3}, buf);
+        logFrame.unpin();
+
+        // writes to other pages must be logged, which needs the latch in exclusive mode
+        BufferFrame frame = bufferManager.fetchNewPageFrame(diskSpaceManager.allocPart(1));
+        try {
+            frame.writeBytesShared((short) 0, (short) 1, new byte[] {1});
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageCleanerBadWatermarks() {
+        bufferManager.startPageCleaner(10, 1, 0.8, 0.5);
+    }
+
+    @Test
+    public void testAccessStrategy() {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame hot1 = bufferManager.fetchNewPageFrame(partNum);
+        BufferFrame hot2 = bufferManager.fetchNewPageFrame(partNum);
+        hot1.unpin();
+        hot2.unpin();
+
+        // a bulk operation loading many pages (more than the buffer) only uses the free
+        // frames and then recycles its own ring of frames
+        BufferAccessStrategy strategy = new BufferAccessStrategy(2);
+        BufferFrame[] bulk = new BufferFrame[10];
+        for (int i = 0; i < bulk.length; ++i) {
+            bulk[i] = bufferManager.fetchNewPageFrame(partNum, strategy);
+            bulk[i].unpin();
+        }
+        assertTrue(hot1.isValid());
+        assertTrue(hot2.isValid());
+        assertTrue(bulk[9].isValid());
+        assertTrue(bulk[8].isValid());
+        assertFalse(bulk[7].isValid());
+
+        // pages loaded without a strategy are not confined to the ring
+        long numIOs = bufferManager.getNumIOs();
+        for (int i = 0; i < bulk.length; ++i) {
+            bufferManager.fetchPageFrame(bulk[i].getPageNum()).unpin();
+        }
+        assertTrue(bufferManager.getNumIOs() > numIOs);
+        assertFalse(hot1.isValid() && hot2.isValid());
+    }
 }
@@ -6,6 +6,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -16,8 +21,10 @@ public class TestEvictionPolicy {
 
     private class TestFrame extends BufferFrame {
         private int index;
+        private long pageNum;
         private TestFrame(int index) {
             this.index = index;
+            this.pageNum = index;
         }
 
         @Override
@@ -32,7 +39,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return pageNum;
         }
 
         @Override
@@ -47,6 +54,10 @@ public class TestEvictionPolicy {
         void writeBytes(short position, short num, byte[] buf) {
         }
 
+        @Override
+        void writeBytesShared(short position, short num, byte[] buf) {
+        }
+
         @Override
         long getPageLSN() {
             return 0;
@@ -193,4 +204,199 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testEvictionOrder() {
+        EvictionPolicy lru = new LRUEvictionPolicy();
+        BufferFrame[] lruFrames = new BufferFrame[] {frames[0], frames[1], frames[2]};
+        for (BufferFrame frame : lruFrames) {
+            lru.init(frame);
+            lru.hit(frame);
+        }
+        lru.hit(frames[0]);
+        assertEquals(Arrays.asList(frames[1], frames[2], frames[0]), lru.evictionOrder(lruFrames));
+
+        // listing the order does not change which frame is evicted
+        assertEquals(frames[1], lru.evict(lruFrames));
+
+        EvictionPolicy clock = new ClockEvictionPolicy();
+        BufferFrame[] clockFrames = new BufferFrame[] {frames[3], frames[4], frames[5]};
+        for (BufferFrame frame : clockFrames) {
+            clock.init(frame);
+        }
+        clock.hit(frames[3]);
+        assertEquals(Arrays.asList(frames[4], frames[5], frames[3]), clock.evictionOrder(clockFrames));
+        assertEquals(frames[4], clock.evict(clockFrames));
+    }
+
+    @Test
+    public void testTwoQueuePolicy() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy();
+        for (BufferFrame frame : frames) {
+            policy.init(frame); policy.hit(frame);
+        }
+        // hits while in A1in do not matter: first in, first out
+        policy.hit(frames[1]); policy.hit(frames[0]);
+        assertEquals(frames[0], policy.evict(frames));
+        policy.cleanup(frames[0]);
+
+        // page 0 is remembered, so it is hot when loaded again
+        policy.init(frames[0]); policy.hit(frames[0]);
+        for (int i = 1; i <= 5; ++i) {
+            assertEquals(frames[i], policy.evict(frames));
+            policy.cleanup(frames[i]);
+            ((TestFrame) frames[i]).pageNum = 100 + i;
+            policy.init(frames[i]); policy.hit(frames[i]);
+        }
+
+        // A1in is down to a quarter of the buffer (frames 1-5 were reused for new pages,
+        // and frames 6 and 7 remain), so the hot page is evicted next, unless pinned
+        frames[0].pin();
+        assertEquals(frames[6], policy.evict(frames));
+        frames[0].unpin();
+    }
+
+    @Test
+    public void testLRU2Policy() {
+        EvictionPolicy policy = new LRU2EvictionPolicy();
+        BufferFrame[] bufferFrames = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+        for (BufferFrame frame : bufferFrames) {
+            policy.init(frame); policy.hit(frame);
+        }
+        // consecutive hits on the same frame count as a single reference
+        policy.hit(frames[3]); policy.hit(frames[3]);
+        policy.hit(frames[0]); policy.hit(frames[1]); policy.hit(frames[0]);
+
+        assertEquals(frames[2], policy.evict(bufferFrames));
+        policy.cleanup(frames[2]);
+        // page 2's history is kept: its second reference makes it outlast frame 3's page
+        policy.init(frames[2]); policy.hit(frames[2]);
+        assertEquals(frames[3], policy.evict(bufferFrames));
+
+        frames[3].pin();
+        assertEquals(frames[1], policy.evict(bufferFrames));
+        frames[3].unpin();
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        BufferFrame[] bufferFrames = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+        for (BufferFrame frame : bufferFrames) {
+            policy.init(frame); policy.hit(frame);
+        }
+        policy.hit(frames[0]);
+
+        // frame 0 was referenced twice, and the rest are evicted first
+        assertEquals(frames[1], policy.evict(bufferFrames));
+        policy.cleanup(frames[1]);
+
+        // page 1 is remembered: loading it again makes it frequent, and grows the target
+        // size of the recency list
+        policy.init(frames[1]); policy.hit(frames[1]);
+        assertEquals(frames[2], policy.evict(bufferFrames));
+        policy.cleanup(frames[2]);
+        ((TestFrame) frames[2]).pageNum = 100;
+        policy.init(frames[2]); policy.hit(frames[2]);
+
+        assertEquals(frames[3], policy.evict(bufferFrames));
+        frames[3].pin();
+        frames[2].pin();
+        assertEquals(frames[0], policy.evict(bufferFrames));
+        frames[3].unpin();
+        frames[2].unpin();
+    }
+
+    /**
+     * Tests that a hit from another thread does not break up a run of correlated hits
+     * on a frame: frame 0 is hit by this thread, frame 1 by another thread, then frame 0
+     * again by this thread, which only counts as a single reference of frame 0.
+     */
+    @Test
+    public void testCorrelatedReferencesPerThread() throws InterruptedException {
+        for (EvictionPolicy policy : new EvictionPolicy[] {new LRU2EvictionPolicy(), new ARCEvictionPolicy()}) {
+            BufferFrame[] bufferFrames = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+            for (BufferFrame frame : bufferFrames) {
+                policy.init(frame); policy.hit(frame);
+            }
+            policy.hit(frames[0]);
+            Thread other = new Thread(() -> policy.hit(frames[1]));
+            other.start();
+            other.join();
+            policy.hit(frames[0]);
+
+            // frame 0 was referenced twice, before frame 1
+            frames[2].pin();
+            frames[3].pin();
+            assertEquals(frames[0], policy.evict(bufferFrames));
+            frames[2].unpin();
+            frames[3].unpin();
+        }
+    }
+
+    /**
+     * Compares the hit rates of the eviction policies on a workload mixing random
+     * accesses to a small set of hot pages (OLTP) with repeated sequential scans over a
+     * table larger than the buffer.
+     */
+    @Test
+    public void testScanResistance() {
+        int numFrames = 100;
+        long[] accesses = new long[50000];
+        Random random = new Random(186);
+        long scanPage = 0;
+        for (int i = 0; i < accesses.length; ++i) {
+            if (random.nextInt(10) < 6) {
+                accesses[i] = random.nextInt(60);
+            } else {
+                accesses[i] = 1000 + scanPage;
+                scanPage = (scanPage + 1) % 2000;
+            }
+        }
+
+        double clock = hitRate(new ClockEvictionPolicy(), numFrames, accesses);
+        double lru = hitRate(new LRUEvictionPolicy(), numFrames, accesses);
+        double twoQueue = hitRate(new TwoQueueEvictionPolicy(), numFrames, accesses);
+        double lru2 = hitRate(new LRU2EvictionPolicy(), numFrames, accesses);
+        double arc = hitRate(new ARCEvictionPolicy(), numFrames, accesses);
+        double best = Math.max(clock, lru);
+        assertTrue(twoQueue > best + 0.1);
+        assertTrue(lru2 > best + 0.1);
+        assertTrue(arc > best + 0.1);
+    }
+
+    /**
+     * Runs a sequence of page accesses through an eviction policy, as the buffer manager
+     * would (every access reads a few records from the page).
+     * @return fraction of accesses that found the page already loaded
+     */
+    private double hitRate(EvictionPolicy policy, int numFrames, long[] accesses) {
+        BufferFrame[] bufferFrames = new BufferFrame[numFrames];
+        for (int i = 0; i < numFrames; ++i) {
+            bufferFrames[i] = new TestFrame(i);
+        }
+        Map<Long, TestFrame> loaded = new HashMap<>();
+        int hits = 0;
+        for (long pageNum : accesses) {
+            TestFrame frame = loaded.get(pageNum);
+            if (frame != null) {
+                ++hits;
+            } else {
+                if (loaded.size() < numFrames) {
+                    frame = (TestFrame) bufferFrames[loaded.size()];
+                } else {
+                    frame = (TestFrame) policy.evict(bufferFrames);
+                    policy.cleanup(frame);
+                    loaded.remove(frame.pageNum);
+                }
+                frame.pageNum = pageNum;
+                loaded.put(pageNum, frame);
+                policy.init(frame);
+            }
+            for (int j = 0; j < 3; ++j) {
+                policy.hit(frame);
+            }
+        }
+        return (double) hits / accesses.length;
+    }
 }
@@ -0,0 +1,69 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPageTable {
+    @Test
+    public void testPutGetRemove() {
+        PageTable table = new PageTable(4);
+        long pageNum1 = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long pageNum2 = DiskSpaceManager.getVirtualPageNum(2, 0);
+        assertEquals(-1, table.get(pageNum1));
+
+        table.put(pageNum1, 3);
+        table.put(pageNum2, 0);
+        assertEquals(3, table.get(pageNum1));
+        assertEquals(0, table.get(pageNum2));
+        assertEquals(2, table.size());
+
+        table.put(pageNum1, 1);
+        assertEquals(1, table.get(pageNum1));
+        assertEquals(2, table.size());
+
+        // only removed if mapped to the given frame
+        assertFalse(table.remove(pageNum1, 3));
+        assertTrue(table.remove(pageNum1, 1));
+        assertFalse(table.remove(pageNum1, 1));
+        assertEquals(-1, table.get(pageNum1));
+        assertEquals(0, table.get(pageNum2));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testChurn() {
+        // many more insertions and removals than slots, to exercise reuse of removed
+        // slots and rehashing
+        PageTable table = new PageTable(8);
+        int partNum = 3;
+        for (int i = 0; i < 10000; ++i) {
+            table.put(DiskSpaceManager.getVirtualPageNum(partNum, i), i % 8);
+            if (i >= 8) {
+                assertTrue(table.remove(DiskSpaceManager.getVirtualPageNum(partNum, i - 8), (i - 8) % 8));
+            }
+            assertEquals(Math.min(i + 1, 8), table.size());
+        }
+        for (int i = 0; i < 10000; ++i) {
+            int expected = i >= 10000 - 8 ? i % 8 : -1;
+            assertEquals(expected, table.get(DiskSpaceManager.getVirtualPageNum(partNum, i)));
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        PageTable table = new PageTable(1);
+        for (int i = 0; i < 1000; ++i) {
+            table.put(i, i);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i, table.get(i));
+        }
+        assertEquals(-1, table.get(1000));
+    }
+}
@@ -83,6 +83,9 @@ class DummyTransaction extends Transaction {
     @Override
     public void createTable(Schema s, String tableName) {}
 
+    @Override
+    public void createTable(Schema s, String tableName, int tablespace) {}
+
     @Override
     public void dropTable(String tableName) {}
 
@@ -92,6 +95,9 @@ class DummyTransaction extends Transaction {
     @Override
     public void createIndex(String tableName, String columnName, boolean bulkLoad) {}
 
+    @Override
+    public void createIndex(String tableName, String columnName, boolean bulkLoad, int tablespace) {}
+
     @Override
     public void dropIndex(String tableName, String columnName) {}
 
@@ -14,10 +14,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
@@ -130,4 +136,109 @@ public class TestLogManager {
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    @Test
+    public void testConcurrentAppend() throws InterruptedException {
+        int numThreads = 4;
+        int perThread = 2000;
+        long[][] LSNs = new long[numThreads][perThread];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    LSNs[thread][i] = logManager.appendToLog(new MasterLogRecord(thread * perThread + i));
+                    if (i % 500 == 0) {
+                        logManager.flushToLSN(LSNs[thread][i]);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // every record ended up in the log, at the LSN it was given
+        Set<Long> seen = new HashSet<>();
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 0; i < perThread; ++i) {
+                assertTrue(seen.add(LSNs[t][i]));
+                assertEquals(new MasterLogRecord(t * perThread + i), logManager.fetchLogRecord(LSNs[t][i]));
+            }
+        }
+        int count = 0;
+        for (LogRecord record : logManager) {
+            assertTrue(seen.contains(record.getLSN()));
+            ++count;
+        }
+        assertEquals(numThreads * perThread, count);
+    }
+
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger logWrites = new AtomicInteger(0);
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePages(long firstPage, int count, ByteBuffer[] bufs) {
+                if (DiskSpaceManager.getPartNum(firstPage) == LogManager.LOG_PARTITION &&
+                        logWrites.incrementAndGet() == 1) {
+                    // hold up the first flush until the other committers are waiting
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                super.writePages(firstPage, count, bufs);
+            }
+        };
+        diskSpaceManager.allocPart(0);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        LogManager logManager = new LogManager(bufferManager);
+        try {
+            long firstLSN = logManager.appendToLog(new MasterLogRecord(0));
+            Thread leader = new Thread(() -> logManager.flushToLSN(firstLSN));
+            leader.start();
+            writing.await();
+
+            // records can be appended while the log is being written out; these go on
+            // the next pages of the log
+            long[] LSNs = new long[3];
+            for (int i = 0; i < LSNs.length; ++i) {
+                long LSN = logManager.appendToLog(new MasterLogRecord(i));
+                while (LogManager.getLSNPage(LSN) == LogManager.getLSNPage(firstLSN) + i) {
+                    LSN = logManager.appendToLog(new MasterLogRecord(i));
+                }
+                LSNs[i] = LSN;
+            }
+            Thread[] followers = new Thread[LSNs.length];
+            for (int i = 0; i < followers.length; ++i) {
+                long LSN = LSNs[i];
+                followers[i] = new Thread(() -> logManager.flushToLSN(LSN));
+                followers[i].start();
+            }
+            for (Thread follower : followers) {
+                while (follower.getState() != Thread.State.WAITING) {
+                    Thread.sleep(1);
+                }
+            }
+            release.countDown();
+            leader.join();
+            for (Thread follower : followers) {
+                follower.join();
+            }
+
+            // every follower's record was flushed by a single write
+            assertEquals(2, logWrites.get());
+            assertTrue(logManager.getFlushedLSN() >= LSNs[LSNs.length - 1]);
+        } finally {
+            logManager.close();
+            bufferManager.close();
+        }
+    }
 }
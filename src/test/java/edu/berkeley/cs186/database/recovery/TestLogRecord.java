@@ -53,11 +53,13 @@ public class TestLogRecord {
     @Test
     public void testAllocPartSerialize() {
         checkSerialize(new AllocPartLogRecord(-98765L, -43210, -77654L));
+        checkSerialize(new AllocPartLogRecord(-98765L, -43210, 3, true, -77654L));
     }
 
     @Test
     public void testFreePartSerialize() {
         checkSerialize(new FreePartLogRecord(-98765L, -43210, -77654L));
+        checkSerialize(new FreePartLogRecord(-98765L, -43210, 3, true, -77654L));
     }
 
     @Test
@@ -78,6 +80,14 @@ public class TestLogRecord {
     @Test
     public void testUndoFreePartSerialize() {
         checkSerialize(new UndoFreePartLogRecord(-98765L, -43210, -77654L, -91235L));
+        checkSerialize(new UndoFreePartLogRecord(-98765L, -43210, 3, true, -77654L, -91235L));
+    }
+
+    @Test
+    public void testUndoFreePartKeepsPlacement() {
+        LogRecord record = new FreePartLogRecord(-98765L, -43210, 3, true, -77654L);
+        assertEquals(new UndoFreePartLogRecord(-98765L, -43210, 3, true, -91235L, -77654L),
+                     record.undo(-91235L));
     }
 
     @Test
@@ -6,10 +6,12 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj5Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 import org.junit.After;
 import org.junit.Before;
@@ -23,6 +25,7 @@ import org.junit.rules.Timeout;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import static junit.framework.TestCase.assertTrue;
@@ -67,7 +70,17 @@ public class TestRecoveryManager {
      * @return recovery manager, loaded from disk
      */
     protected ARIESRecoveryManager loadRecoveryManager(String dir) {
-        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        return loadRecoveryManager(dir, new ARIESRecoveryManager(DummyTransaction::create));
+    }
+
+    /**
+     * Loads a recovery manager from disk.
+     *
+     * @param dir testDir
+     * @param recoveryManager new recovery manager to load
+     * @return recovery manager, loaded from disk
+     */
+    protected ARIESRecoveryManager loadRecoveryManager(String dir, ARIESRecoveryManager recoveryManager) {
         DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir, recoveryManager);
         BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 32,
                 new LRUEvictionPolicy());
@@ -568,6 +581,169 @@ public class TestRecoveryManager {
         }
     }
 
+    /**
+     * Tests that checkpointIfDue only takes a checkpoint once enough log has been
+     * written since the last checkpoint:
+     *  - No checkpoint right after a checkpoint
+     *  - Checkpoint once the log has grown by the limit, which updates the master record
+     *  - No checkpoint right after that checkpoint
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointIfDue() {
+        long numCheckpoints = recoveryManager.getNumCheckpoints();
+        int logBytes = 10 * new MasterLogRecord(0).toBytes().length;
+        assertFalse(recoveryManager.checkpointIfDue(Long.MAX_VALUE, logBytes, 0));
+
+        for (int i = 0; i < 9; ++i) {
+            logManager.appendToLog(new MasterLogRecord(0));
+        }
+        assertFalse(recoveryManager.checkpointIfDue(Long.MAX_VALUE, logBytes, 0));
+        long LSN = logManager.appendToLog(new MasterLogRecord(0));
+        assertTrue(recoveryManager.checkpointIfDue(Long.MAX_VALUE, logBytes, 0));
+        assertEquals(numCheckpoints + 1, recoveryManager.getNumCheckpoints());
+
+        // master record points to the new checkpoint
+        long beginLSN = ((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+        assertTrue(beginLSN > LSN);
+        assertEquals(LogType.BEGIN_CHECKPOINT, logManager.fetchLogRecord(beginLSN).getType());
+
+        assertFalse(recoveryManager.checkpointIfDue(Long.MAX_VALUE, logBytes, 0));
+    }
+
+    /**
+     * Tests that writeOldestPages writes out the dirty pages with the lowest recLSNs,
+     * skipping pinned pages, and that the written pages leave the DPT.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testWriteOldestPages() {
+        // dirty pages 0-4 of partition 1, with recLSNs in reverse order of page number
+        for (int i = 0; i < 5; ++i) {
+            long pageNum = 10000000000L + i;
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+            try {
+                page.getBuffer().put((byte) 1);
+            } finally {
+                page.unpin();
+            }
+            dirtyPageTable.put(pageNum, 100000L - i);
+        }
+        recoveryManager.redoComplete = true;
+
+        // page 4 has the oldest recLSN, but is in use
+        Page pinned = bufferManager.fetchPage(new DummyLockContext(), 10000000004L);
+        try {
+            assertEquals(2, recoveryManager.writeOldestPages(3));
+        } finally {
+            pinned.unpin();
+        }
+
+        Map<Long, Boolean> dirty = new HashMap<>();
+        bufferManager.iterPageNums(dirty::put);
+        assertFalse(dirty.get(10000000003L));
+        assertFalse(dirty.get(10000000002L));
+        assertTrue(dirty.get(10000000001L));
+        assertTrue(dirty.get(10000000000L));
+        assertTrue(dirty.get(10000000004L));
+        assertEquals(new HashSet<>(Arrays.asList(10000000000L, 10000000001L, 10000000004L)),
+                     dirtyPageTable.keySet());
+    }
+
+    /**
+     * Tests that a checkpoint with page writes writes out the pages dirtied through
+     * logPageWrite, so that they leave the DPT and the checkpoint's end record.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointWritesLoggedPages() {
+        byte[] before = new byte[] { (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0x01 };
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        for (int i = 0; i < 3; ++i) {
+            long pageNum = 10000000000L + i;
+            long LSN = recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+            logManager.fetchLogRecord(LSN).redo(recoveryManager, diskSpaceManager, bufferManager);
+        }
+        assertEquals(3, dirtyPageTable.size());
+        recoveryManager.redoComplete = true;
+
+        assertTrue(recoveryManager.checkpointIfDue(0, Long.MAX_VALUE, 3));
+        assertTrue(dirtyPageTable.isEmpty());
+        long beginLSN = ((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+        Iterator<LogRecord> logs = logManager.scanFrom(beginLSN);
+        assertEquals(LogType.BEGIN_CHECKPOINT, logs.next().getType());
+        assertEquals(Collections.emptyMap(), logs.next().getDirtyPageTable());
+    }
+
+    /**
+     * Tests that the checkpointer takes checkpoints in the background once the
+     * checkpoint interval has passed, and stops when asked to.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointer() throws InterruptedException {
+        long numCheckpoints = recoveryManager.getNumCheckpoints();
+        recoveryManager.startCheckpointer(10, Long.MAX_VALUE, 0);
+        try {
+            while (recoveryManager.getNumCheckpoints() < numCheckpoints + 2) {
+                Thread.sleep(5);
+            }
+        } finally {
+            recoveryManager.stopCheckpointer();
+        }
+        numCheckpoints = recoveryManager.getNumCheckpoints();
+        Thread.sleep(50);
+        assertEquals(numCheckpoints, recoveryManager.getNumCheckpoints());
+    }
+
+    /**
+     * Tests that the checkpointer keeps taking checkpoints after a check fails.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointerSurvivesFailures() throws IOException, InterruptedException {
+        recoveryManager.close();
+        AtomicInteger failures = new AtomicInteger(1);
+        recoveryManager = loadRecoveryManager(tempFolder.newFolder("failing-dir").getAbsolutePath(),
+                new ARIESRecoveryManager(DummyTransaction::create) {
+            @Override
+            boolean checkpointIfDue(long intervalMillis, long logBytes, int pagesPerCheckpoint) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("injected checkpoint failure");
+                }
+                return super.checkpointIfDue(intervalMillis, logBytes, pagesPerCheckpoint);
+            }
+        });
+
+        long numCheckpoints = recoveryManager.getNumCheckpoints();
+        recoveryManager.startCheckpointer(10, Long.MAX_VALUE, 0);
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (recoveryManager.getNumCheckpoints() == numCheckpoints &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            recoveryManager.stopCheckpointer();
+        }
+        assertTrue(failures.get() < 0);
+        assertTrue(recoveryManager.getNumCheckpoints() > numCheckpoints);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    @Category(PublicTests.class)
+    public void testCheckpointerAlreadyRunning() {
+        recoveryManager.startCheckpointer(1000, Long.MAX_VALUE, 0);
+        try {
+            recoveryManager.startCheckpointer(1000, Long.MAX_VALUE, 0);
+        } finally {
+            recoveryManager.stopCheckpointer();
+        }
+    }
+
     /**
      * Test rolling back T2 while T1 is also running:
      * 1. T1 writes, T2 writes, T2 makes savepoint, T1 and T2 continue writing
@@ -976,6 +1152,130 @@ public class TestRecoveryManager {
         finishRedoChecks();
     }
 
+    /**
+     * Test redo phase of recovery with several redo threads:
+     * 1. Sets up log. Transaction 1 updates a few pages, allocating a partition halfway
+     *    through.
+     * 2. Simulate database shutdown and sets up dpt (to simulate analysis)
+     * 3. Runs redo phase with 4 threads and checks that every update is redone, that
+     *    updates to each page are redone in order, and that the partition is allocated
+     *    after every earlier record is redone and before any later one
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelRestartRedo() {
+        DummyTransaction.create(1L);
+
+        // 1. Set up log. Transaction 1 updates pages 0-7 of partition 1, five times each.
+        List<Long> LSNs = new ArrayList<>();
+        long prevLSN = 0L;
+        for (int i = 0; i < 40; ++i) {
+            if (i == 20) {
+                prevLSN = logManager.appendToLog(new AllocPartLogRecord(1L, 10, prevLSN));
+                LSNs.add(prevLSN);
+            }
+            byte[] before = new byte[] { (byte) 0 };
+            byte[] after = new byte[] { (byte) (i + 1) };
+            long pageNum = 10000000000L + i % 8;
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN, (short) (i / 8),
+                                             before, after));
+            LSNs.add(prevLSN);
+        }
+        long allocLSN = LSNs.get(20);
+
+        // 2. Simulate database shutdown (without any of the updates on disk) and set up dpt
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        for (int i = 0; i < 8; ++i) {
+            dirtyPageTable.put(10000000000L + i, LSNs.get(i));
+        }
+
+        // 3. Run redo phase with several threads
+        List<LogRecord> redone = Collections.synchronizedList(new ArrayList<>());
+        LogRecord.onRedoHandler(redone::add);
+        recoveryManager.setRedoThreads(4);
+        recoveryManager.restartRedo();
+        LogRecord.onRedoHandler(record -> {
+        });
+
+        assertEquals(41, redone.size());
+        Map<Long, Long> lastRedone = new HashMap<>();
+        int allocIndex = -1;
+        for (int i = 0; i < redone.size(); ++i) {
+            LogRecord record = redone.get(i);
+            if (record.getLSN() == allocLSN) {
+                allocIndex = i;
+                continue;
+            }
+            long pageNum = record.getPageNum().get();
+            assertTrue(lastRedone.getOrDefault(pageNum, -1L) < record.getLSN());
+            lastRedone.put(pageNum, record.getLSN());
+            assertEquals(allocIndex < 0, record.getLSN() < allocLSN);
+        }
+        assertEquals(20, allocIndex);
+
+        // every update is reflected in the pages
+        for (int i = 0; i < 40; ++i) {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), 10000000000L + i % 8);
+            try {
+                assertEquals((byte) (i + 1), page.getBuffer().get(i / 8));
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    /**
+     * Tests restart with several redo threads, on a log written through forward
+     * processing (so the DPT is rebuilt by analysis):
+     * 1. T1 writes pages 0-7 of partition 1 and commits; T2 writes pages 0-1 after it
+     *    and does not commit. None of the writes reach disk.
+     * 2. Simulates db shutdown
+     * 3. Restarts with 4 redo threads and checks that T1's writes are on the pages and
+     *    T2's were undone
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelRestart() {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00 };
+        byte[] after1 = new byte[] { (byte) 0xCA, (byte) 0xFE };
+        byte[] after2 = new byte[] { (byte) 0xBE, (byte) 0xEF };
+
+        // 1. T1 writes 8 pages and commits, T2 writes 2 pages at another offset
+        Transaction transaction1 = DummyTransaction.create(1L);
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.startTransaction(transaction2);
+        for (int i = 0; i < 8; ++i) {
+            recoveryManager.logPageWrite(1L, 10000000000L + i, (short) 0, before, after1);
+        }
+        recoveryManager.commit(1L);
+        for (int i = 0; i < 2; ++i) {
+            recoveryManager.logPageWrite(2L, 10000000000L + i, (short) 2, before, after2);
+        }
+        assertEquals(8, dirtyPageTable.size());
+
+        // 2. Simulate db shutdown, without any of the writes on disk
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+
+        // 3. Restart with several redo threads
+        recoveryManager.setRedoThreads(4);
+        recoveryManager.restart();
+
+        assertTrue(transactionTable.isEmpty());
+        for (int i = 0; i < 8; ++i) {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), 10000000000L + i);
+            try {
+                byte[] bytes = new byte[4];
+                page.getBuffer().get(bytes);
+                assertArrayEquals(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0x00, (byte) 0x00 }, bytes);
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
     /**
      * Test undo phase of recovery:
      * 1. Sets up log - T1 makes 4 updates and then aborts.
@@ -0,0 +1,252 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category(SystemTests.class)
+public class TestSegmentedLogManager {
+    // small segments and buffers, so that tests cross segment and buffer boundaries
+    private static final int SEGMENT_SIZE = 2 * DiskSpaceManager.PAGE_SIZE;
+    private static final int BUFFER_SIZE = 3 * DiskSpaceManager.PAGE_SIZE;
+    // space taken by a MasterLogRecord (and its checksum) in the log
+    private static final int RECORD_SPACE = SegmentedLogManager.RECORD_HEADER_SIZE +
+                                            new MasterLogRecord(0).toBytes().length;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private String logDir;
+    private LogManager logManager;
+
+    @Before
+    public void setup() throws IOException {
+        logDir = tempFolder.newFolder("log").getAbsolutePath();
+        logManager = new SegmentedLogManager(logDir, SEGMENT_SIZE, BUFFER_SIZE);
+    }
+
+    @After
+    public void cleanup() {
+        logManager.close();
+    }
+
+    @Test
+    public void testAppendFetch() {
+        LogRecord expected = new MasterLogRecord(1234);
+
+        long LSN = logManager.appendToLog(expected);
+        assertEquals(0, LSN);
+        assertEquals(expected, logManager.fetchLogRecord(LSN));
+
+        logManager.flushToLSN(LSN);
+        assertEquals(expected, logManager.fetchLogRecord(LSN));
+        assertNull(logManager.fetchLogRecord(LSN + 1000));
+    }
+
+    @Test
+    public void testByteOffsetLSNs() {
+        long first = logManager.appendToLog(new MasterLogRecord(1));
+        long second = logManager.appendToLog(new MasterLogRecord(2));
+        assertEquals(RECORD_SPACE, second - first);
+    }
+
+    @Test
+    public void testScanAcrossSegments() {
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(i)));
+            if (i % 300 == 0) {
+                logManager.flushToLSN(LSNs.get(i));
+            }
+        }
+        // records that do not fit at the end of a segment start the next segment
+        for (long LSN : LSNs) {
+            int offset = (int) (LSN % SEGMENT_SIZE);
+            assertTrue(offset + RECORD_SPACE <= SEGMENT_SIZE);
+        }
+        assertTrue(LSNs.get(LSNs.size() - 1) > 3 * SEGMENT_SIZE);
+
+        Iterator<LogRecord> iter = logManager.scanFrom(LSNs.get(100));
+        for (int i = 100; i < 2000; ++i) {
+            LogRecord record = iter.next();
+            assertEquals(new MasterLogRecord(i), record);
+            assertEquals((long) LSNs.get(i), record.getLSN());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testFlushedLSN() {
+        long first = logManager.appendToLog(new MasterLogRecord(1));
+        long second = logManager.appendToLog(new MasterLogRecord(2));
+        assertTrue(logManager.getFlushedLSN() < first);
+
+        logManager.flushToLSN(first);
+        // the whole log buffer is written out
+        assertTrue(logManager.getFlushedLSN() >= second);
+        // segment files are created at their full size
+        assertEquals(SEGMENT_SIZE, new File(logDir, "0.log").length());
+    }
+
+    @Test
+    public void testRestart() {
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(i)));
+        }
+        logManager.rewriteMasterRecord(new MasterLogRecord(-1));
+        logManager.close();
+
+        logManager = new SegmentedLogManager(logDir, SEGMENT_SIZE, BUFFER_SIZE);
+        assertEquals(LSNs.get(999) + RECORD_SPACE - 1, logManager.getFlushedLSN());
+        long next = logManager.appendToLog(new MasterLogRecord(1000));
+        assertTrue(next > LSNs.get(999));
+
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        for (int i = 1; i < 1000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertEquals(new MasterLogRecord(1000), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testConcurrentAppend() throws InterruptedException {
+        int numThreads = 4;
+        int perThread = 1000;
+        long[][] LSNs = new long[numThreads][perThread];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    LSNs[thread][i] = logManager.appendToLog(new MasterLogRecord(thread * perThread + i));
+                    if (i % 100 == 0) {
+                        logManager.flushToLSN(LSNs[thread][i]);
+                        assertTrue(logManager.getFlushedLSN() >= LSNs[thread][i]);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 0; i < perThread; ++i) {
+                assertEquals(new MasterLogRecord(t * perThread + i), logManager.fetchLogRecord(LSNs[t][i]));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedWrite() {
+        // a directory in the way of the second segment makes writing into it fail
+        File blocker = new File(logDir, "1.log");
+        assertTrue(blocker.mkdir());
+
+        List<Long> LSNs = new ArrayList<>();
+        while (LSNs.isEmpty() || LSNs.get(LSNs.size() - 1) < SEGMENT_SIZE) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(LSNs.size())));
+        }
+        try {
+            logManager.flushToLSN(LSNs.get(LSNs.size() - 1));
+            fail("flush should fail");
+        } catch (PageException e) {
+            // expected
+        }
+        assertTrue(logManager.getFlushedLSN() < LSNs.get(LSNs.size() - 1));
+
+        // records that could not be written are kept, and more can be appended
+        for (int i = 0; i < 10; ++i) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(LSNs.size())));
+        }
+        for (int i = 0; i < LSNs.size(); ++i) {
+            assertEquals(new MasterLogRecord(i), logManager.fetchLogRecord(LSNs.get(i)));
+        }
+
+        // once the segment can be written, the next flush writes out every record
+        assertTrue(blocker.delete());
+        logManager.flushToLSN(LSNs.get(LSNs.size() - 1));
+        assertTrue(logManager.getFlushedLSN() >= LSNs.get(LSNs.size() - 1));
+        logManager.close();
+
+        logManager = new SegmentedLogManager(logDir, SEGMENT_SIZE, BUFFER_SIZE);
+        Iterator<LogRecord> iter = logManager.scanFrom(0);
+        for (int i = 0; i < LSNs.size(); ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testTornWrite() throws IOException {
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            LSNs.add(logManager.appendToLog(new MasterLogRecord(i)));
+        }
+        logManager.close();
+
+        // a crash tore the write of records 40 to 49: record 40 was not written out, but
+        // the records after it were
+        try (RandomAccessFile segment = new RandomAccessFile(new File(logDir, "0.log"), "rw")) {
+            segment.seek(LSNs.get(40) + SegmentedLogManager.RECORD_HEADER_SIZE + 1);
+            segment.write(0xFF);
+        }
+        logManager = new SegmentedLogManager(logDir, SEGMENT_SIZE, BUFFER_SIZE);
+        assertEquals(LSNs.get(40) - 1, logManager.getFlushedLSN());
+
+        // the stale records after the end of the log are gone, even once a new record
+        // takes the place of record 40
+        assertEquals((long) LSNs.get(40), logManager.appendToLog(new MasterLogRecord(1000)));
+        logManager.close();
+        logManager = new SegmentedLogManager(logDir, SEGMENT_SIZE, BUFFER_SIZE);
+        Iterator<LogRecord> iter = logManager.scanFrom(0);
+        for (int i = 0; i < 40; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertEquals(new MasterLogRecord(1000), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testMovedRecord() throws IOException {
+        long first = logManager.appendToLog(new MasterLogRecord(1));
+        long second = logManager.appendToLog(new MasterLogRecord(2));
+        logManager.close();
+
+        // a record that parses, but is not where it was written, is not part of the log
+        try (RandomAccessFile segment = new RandomAccessFile(new File(logDir, "0.log"), "rw")) {
+            byte[] bytes = new byte[RECORD_SPACE];
+            segment.seek(first);
+            segment.readFully(bytes);
+            segment.seek(second);
+            segment.write(bytes);
+        }
+        logManager = new SegmentedLogManager(logDir, SEGMENT_SIZE, BUFFER_SIZE);
+        assertEquals(second - 1, logManager.getFlushedLSN());
+        assertNull(logManager.fetchLogRecord(second));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferTooSmall() {
+        new SegmentedLogManager(logDir, SEGMENT_SIZE, DiskSpaceManager.PAGE_SIZE);
+    }
+}